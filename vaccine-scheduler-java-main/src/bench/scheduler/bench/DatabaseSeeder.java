@@ -0,0 +1,105 @@
+package scheduler.bench;
+
+import scheduler.storage.ProvisioningBatch;
+import scheduler.storage.Reservation;
+import scheduler.storage.Storage;
+import scheduler.util.Util;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Fills storage with benchmark users, availabilities, doses and appointments. Everything it creates is prefixed
+ * with "bench_". It writes through the same repositories the scheduler uses, so it works with every backend; a SQL
+ * Server database has to be empty of bench_ data before seeding.
+ */
+class DatabaseSeeder {
+
+    static final String PASSWORD = "bench-password";
+    static final String VACCINE = "bench_vaccine";
+    // reservations are made from this date on, past appointments are seeded in the year before it
+    static final LocalDate FIRST_DATE = LocalDate.of(2030, 1, 1);
+
+    private static final int BATCH_SIZE = 1_000;
+    private static final int PAST_DAYS = 365;
+
+    private final int caregivers;
+    private final int patients;
+    private final int days;
+    private final int caregiversPerDay;
+    private final int appointments;
+    private final int doses;
+
+    DatabaseSeeder(int caregivers, int patients, int days, int caregiversPerDay, int appointments, int doses) {
+        this.caregivers = caregivers;
+        this.patients = patients;
+        this.days = days;
+        this.caregiversPerDay = Math.min(caregiversPerDay, caregivers);
+        this.appointments = Math.min(appointments, caregivers * PAST_DAYS);
+        this.doses = doses;
+    }
+
+    static String caregiver(int i) {
+        return "bench_caregiver_" + i;
+    }
+
+    static String patient(int i) {
+        return "bench_patient_" + i;
+    }
+
+    void seed() throws SQLException {
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash(PASSWORD, salt);
+        Random random = new Random(42);
+
+        Batches batches = new Batches();
+        for (int i = 0; i < caregivers; i++) {
+            batches.next().addCaregiver(caregiver(i), salt, hash);
+        }
+        for (int i = 0; i < patients; i++) {
+            batches.next().addPatient(patient(i), salt, hash);
+        }
+        batches.next().addDoses(VACCINE, doses);
+        for (int day = 0; day < days; day++) {
+            for (int i = 0; i < caregiversPerDay; i++) {
+                batches.next().addAvailability(caregiver(i), FIRST_DATE.plusDays(day));
+            }
+        }
+        // past appointments are booked like any other, every one on its own caregiver and day
+        for (int i = 0; i < appointments; i++) {
+            batches.next().addAvailability(caregiver(i / PAST_DAYS), pastDate(i));
+        }
+        batches.flush();
+        for (int i = 0; i < appointments; i++) {
+            Reservation reservation = Storage.getInstance().getAppointments().reserve(pastDate(i), VACCINE,
+                    patient(random.nextInt(patients)), caregiver(i / PAST_DAYS));
+            if (reservation.getStatus() != Reservation.Status.BOOKED) {
+                throw new SQLException("Could not seed appointment: " + reservation.getStatus());
+            }
+        }
+    }
+
+    private static LocalDate pastDate(int i) {
+        return FIRST_DATE.minusDays(1 + i % PAST_DAYS);
+    }
+
+    // provisioning batches of at most BATCH_SIZE changes, each written as soon as it is full
+    private static class Batches {
+        private ProvisioningBatch batch = new ProvisioningBatch();
+
+        ProvisioningBatch next() throws SQLException {
+            if (batch.size() >= BATCH_SIZE) {
+                flush();
+            }
+            return batch;
+        }
+
+        void flush() throws SQLException {
+            if (batch.size() > 0) {
+                batch.execute();
+                batch = new ProvisioningBatch();
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package scheduler.bench;
+
+import scheduler.model.Appointment;
+import scheduler.storage.Storage;
+import scheduler.storage.VaccineInventory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * Checks that storage is still consistent after a load run. Everything is read through the repositories, so it works
+ * with every backend, and should only run while nothing else writes.
+ *
+ * The invariants are: no caregiver has more appointments on a date than the capacity they uploaded, every
+ * appointment is counted as a booked slot of its caregiver's date and every booked slot is an appointment (so
+ * nothing may have been archived), no vaccine has negative doses, the in-memory dose counts match storage, and every
+ * appointment booked or cancelled during the run moved the doses by exactly one.
+ */
+class InvariantChecker {
+
+    // appointments read per page
+    private static final int PAGE_SIZE = 1_000;
+
+    private final List<String> violations = new ArrayList<>();
+
+    // the number of appointments and doses of every vaccine, taken before and after the run
+    static Snapshot snapshot() throws SQLException {
+        Map<String, Integer> appointments = new HashMap<>();
+        for (Appointment appointment : allAppointments()) {
+            appointments.merge(appointment.getVaccineName(), 1, Integer::sum);
+        }
+        return new Snapshot(appointments, Storage.getInstance().getInventory().findAll());
+    }
+
+    /**
+     * Checks every invariant and returns the violations found, none if storage is consistent. The doses added during
+     * the run are given per vaccine.
+     */
+    List<String> check(Snapshot before, Map<String, Long> dosesAdded) throws SQLException {
+        List<Appointment> appointments = allAppointments();
+        checkSlots(appointments);
+        Snapshot after = snapshot();
+        checkDoses(after);
+        checkDoseDeltas(before, after, dosesAdded);
+        return violations;
+    }
+
+    private void checkSlots(List<Appointment> appointments) throws SQLException {
+        Map<String, Integer> booked = new HashMap<>();
+        for (Appointment appointment : appointments) {
+            booked.merge(appointment.getTime() + " " + appointment.getCaregiver(), 1, Integer::sum);
+        }
+        Set<String> published = new HashSet<>();
+        Storage.getInstance().getAvailabilities().forEach((date, caregiver, capacity, bookedSlots) -> {
+            String slot = date + " " + caregiver;
+            published.add(slot);
+            int appointmentsOnSlot = booked.getOrDefault(slot, 0);
+            if (appointmentsOnSlot > capacity) {
+                violations.add("caregiver overbooked: " + slot + " has " + appointmentsOnSlot + " appointments, " +
+                        "capacity " + capacity);
+            }
+            if (appointmentsOnSlot != bookedSlots) {
+                violations.add("booked slots do not match appointments: " + slot + " has " + bookedSlots +
+                        " booked, " + appointmentsOnSlot + " appointments");
+            }
+        });
+        for (String slot : booked.keySet()) {
+            if (!published.contains(slot)) {
+                violations.add("appointment without an availability: " + slot);
+            }
+        }
+    }
+
+    private void checkDoses(Snapshot after) throws SQLException {
+        SortedMap<String, Integer> cached = VaccineInventory.getInstance().getAllDoses();
+        for (Map.Entry<String, Integer> vaccine : after.doses.entrySet()) {
+            if (vaccine.getValue() < 0) {
+                violations.add("negative doses: " + vaccine.getKey() + " " + vaccine.getValue());
+            }
+            Integer inMemory = cached.get(vaccine.getKey());
+            if (!vaccine.getValue().equals(inMemory)) {
+                violations.add("in-memory doses differ: " + vaccine.getKey() + " " + inMemory + " in memory, " +
+                        vaccine.getValue() + " in storage");
+            }
+        }
+    }
+
+    // doses after = doses before + doses added - appointments booked since, for every vaccine
+    private void checkDoseDeltas(Snapshot before, Snapshot after, Map<String, Long> dosesAdded) {
+        for (Map.Entry<String, Integer> vaccine : after.doses.entrySet()) {
+            String name = vaccine.getKey();
+            long booked = after.appointments.getOrDefault(name, 0) - before.appointments.getOrDefault(name, 0);
+            long expected = before.doses.getOrDefault(name, 0) + dosesAdded.getOrDefault(name, 0L) - booked;
+            if (vaccine.getValue() != expected) {
+                violations.add("doses do not match appointments: " + name + " has " + vaccine.getValue() +
+                        " doses, expected " + expected + " after " + booked + " net bookings");
+            }
+        }
+    }
+
+    private static List<Appointment> allAppointments() throws SQLException {
+        List<String> patients = new ArrayList<>();
+        Storage.getInstance().getAccounts().forEachPatient(patients::add);
+        List<Appointment> appointments = new ArrayList<>();
+        for (String patient : patients) {
+            int[] lastId = {0};
+            int read;
+            do {
+                int before = appointments.size();
+                Storage.getInstance().getAppointments().forEachOfPatient(patient, lastId[0], PAGE_SIZE, appointment -> {
+                    appointments.add(appointment);
+                    lastId[0] = appointment.getAppointmentId();
+                });
+                read = appointments.size() - before;
+            } while (read == PAGE_SIZE);
+        }
+        return appointments;
+    }
+
+    static class Snapshot {
+        private final Map<String, Integer> appointments;
+        private final Map<String, Integer> doses;
+
+        private Snapshot(Map<String, Integer> appointments, Map<String, Integer> doses) {
+            this.appointments = appointments;
+            this.doses = doses;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package scheduler.bench;
+
+import java.util.Arrays;
+
+/**
+ * Records the latency of every operation one benchmark thread runs. Each thread owns its recorder, so recording is a
+ * plain array write; the recorders are merged after the run to compute exact percentiles.
+ */
+class LatencyRecorder {
+    private long[] samples = new long[1 << 16];
+    private int count = 0;
+
+    void record(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, samples.length * 2);
+        }
+        samples[count++] = nanos;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    static LatencyRecorder merge(LatencyRecorder... recorders) {
+        LatencyRecorder merged = new LatencyRecorder();
+        int total = 0;
+        for (LatencyRecorder recorder : recorders) {
+            total += recorder.count;
+        }
+        merged.samples = new long[Math.max(total, 1)];
+        for (LatencyRecorder recorder : recorders) {
+            System.arraycopy(recorder.samples, 0, merged.samples, merged.count, recorder.count);
+            merged.count += recorder.count;
+        }
+        Arrays.sort(merged.samples, 0, merged.count);
+        return merged;
+    }
+
+    // the latency below which the given fraction of operations completed, only valid on a merged recorder
+    long percentile(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * count) - 1;
+        return samples[Math.max(0, Math.min(count - 1, index))];
+    }
+}
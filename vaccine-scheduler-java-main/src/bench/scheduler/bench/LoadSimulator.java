@@ -0,0 +1,243 @@
+package scheduler.bench;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.storage.Storage;
+import scheduler.storage.memory.MemoryStorage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs many concurrent sessions through the booking workflow and checks afterwards that storage is still consistent.
+ *
+ * Every session is a patient, with a caregiver session next to it for add_doses. Each one runs a random mix of
+ * search_caregiver_schedule, reserve, cancel (of its own appointments) and add_doses for the given time, through the
+ * same command path as the console. Caregivers and doses are kept scarce, so sessions compete for the same slots and
+ * doses run out and are refilled. Throughput and latency percentiles are reported per command, then the
+ * {@link InvariantChecker} runs and the exit code is 1 if it found a violation.
+ *
+ * Like the benchmark, it runs against the in-memory backend unless the Storage environment variable picks another
+ * one. The mix is given as weights, e.g. search=40,reserve=30,cancel=20,add_doses=10 (the default):
+ *
+ * <pre>
+ *     java scheduler.bench.LoadSimulator [sessions] [seconds] [mix]
+ * </pre>
+ */
+public class LoadSimulator {
+
+    private static final int CAREGIVERS = 200;
+    private static final int DAYS = 30;
+    private static final int CAREGIVERS_PER_DAY = 50;
+    private static final int DOSES = 1_000;
+    // doses a single add_doses adds
+    private static final int DOSES_PER_UPLOAD = 5;
+
+    private static final String DEFAULT_MIX = "search=40,reserve=30,cancel=20,add_doses=10";
+    private static final String[] OPERATIONS = {"search", "reserve", "cancel", "add_doses"};
+    private static final Pattern APPOINTMENT_ID = Pattern.compile("Appointment ID (\\d+)");
+
+    private final int[] weights;
+    private final AtomicLong dosesAdded = new AtomicLong();
+
+    private LoadSimulator(int[] weights) {
+        this.weights = weights;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length >= 1 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 4;
+        int seconds = args.length >= 2 ? Integer.parseInt(args[1]) : 10;
+        int[] weights = parseMix(args.length >= 3 ? args[2] : DEFAULT_MIX);
+
+        if (System.getenv("Storage") == null) {
+            Storage.setInstance(MemoryStorage.create());
+        }
+        System.out.println("Seeding " + CAREGIVERS + " caregivers, " + sessions + " patients, " +
+                DAYS * CAREGIVERS_PER_DAY + " availabilities and " + DOSES + " doses...");
+        new DatabaseSeeder(CAREGIVERS, sessions, DAYS, CAREGIVERS_PER_DAY, 0, DOSES).seed();
+        Scheduler.start();
+
+        InvariantChecker.Snapshot before = InvariantChecker.snapshot();
+        LoadSimulator simulator = new LoadSimulator(weights);
+        simulator.run(sessions, seconds);
+
+        List<String> violations = new InvariantChecker().check(before,
+                Map.of(DatabaseSeeder.VACCINE, simulator.dosesAdded.get()));
+        for (String violation : violations) {
+            System.out.println("VIOLATED: " + violation);
+        }
+        System.out.println(violations.isEmpty() ? "All invariants hold" : violations.size() + " invariants violated");
+        Storage.getInstance().shutdown();
+        System.exit(violations.isEmpty() ? 0 : 1);
+    }
+
+    // weights in the order of OPERATIONS, operations left out of the mix get 0
+    private static int[] parseMix(String mix) {
+        int[] weights = new int[OPERATIONS.length];
+        for (String part : mix.split(",")) {
+            String[] entry = part.split("=");
+            int index = List.of(OPERATIONS).indexOf(entry[0]);
+            if (entry.length != 2 || index < 0) {
+                throw new IllegalArgumentException("Unknown mix entry: " + part);
+            }
+            weights[index] = Integer.parseInt(entry[1]);
+        }
+        return weights;
+    }
+
+    private void run(int sessions, int seconds) throws Exception {
+        Map<String, LatencyRecorder[]> recorders = new LinkedHashMap<>();
+        for (String operation : OPERATIONS) {
+            recorders.put(operation, new LatencyRecorder[sessions]);
+        }
+        Map<String, AtomicLong> failures = new LinkedHashMap<>();
+        for (String operation : OPERATIONS) {
+            failures.put(operation, new AtomicLong());
+        }
+        List<Thread> workers = new ArrayList<>();
+        CountDownLatch ready = new CountDownLatch(sessions);
+        long start = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        long until = start + TimeUnit.SECONDS.toNanos(seconds);
+
+        for (int s = 0; s < sessions; s++) {
+            SessionState state = new SessionState(s);
+            for (String operation : OPERATIONS) {
+                recorders.get(operation)[s] = state.recorders.get(operation);
+            }
+            Thread worker = new Thread(() -> {
+                ready.countDown();
+                while (System.nanoTime() < start) {
+                    Thread.onSpinWait();
+                }
+                while (System.nanoTime() < until) {
+                    String operation = nextOperation();
+                    long begin = System.nanoTime();
+                    boolean ok = state.run(operation);
+                    state.recorders.get(operation).record(System.nanoTime() - begin);
+                    if (!ok) {
+                        failures.get(operation).incrementAndGet();
+                    }
+                }
+            }, "session-" + s);
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        ready.await();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        // a failed reserve or cancel is part of the workload (no caregiver, no doses, already cancelled)
+        System.out.printf("%-10s %10s %10s %10s %10s %10s %10s %10s%n",
+                "command", "ops/s", "failed", "p50 us", "p99 us", "p99.9 us", "max us", "count");
+        long total = 0;
+        for (String operation : OPERATIONS) {
+            LatencyRecorder merged = LatencyRecorder.merge(recorders.get(operation));
+            total += merged.getCount();
+            if (merged.getCount() == 0) {
+                continue;
+            }
+            System.out.printf("%-10s %10.1f %10d %10.1f %10.1f %10.1f %10.1f %10d%n",
+                    operation, merged.getCount() / (double) seconds, failures.get(operation).get(),
+                    micros(merged.percentile(0.50)), micros(merged.percentile(0.99)),
+                    micros(merged.percentile(0.999)), micros(merged.percentile(1.0)), merged.getCount());
+        }
+        System.out.printf("%-10s %10.1f%n", "total", total / (double) seconds);
+    }
+
+    private String nextOperation() {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int pick = ThreadLocalRandom.current().nextInt(total);
+        for (int i = 0; i < weights.length; i++) {
+            pick -= weights[i];
+            if (pick < 0) {
+                return OPERATIONS[i];
+            }
+        }
+        return OPERATIONS[0];
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1_000.0;
+    }
+
+    // one simulated patient with its own sessions, appointments and recorders, never shared between threads
+    private class SessionState {
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private final Session patient = new Session(new PrintStream(output, false, StandardCharsets.UTF_8));
+        private final Session caregiver = new Session(new PrintStream(output, false, StandardCharsets.UTF_8));
+        private final List<Integer> appointments = new ArrayList<>();
+        private final Map<String, LatencyRecorder> recorders = new LinkedHashMap<>();
+
+        SessionState(int index) throws Exception {
+            patient.login(new Patient.PatientGetter(DatabaseSeeder.patient(index), DatabaseSeeder.PASSWORD).get());
+            caregiver.login(new Caregiver.CaregiverGetter(DatabaseSeeder.caregiver(index % CAREGIVERS),
+                    DatabaseSeeder.PASSWORD).get());
+            for (String operation : OPERATIONS) {
+                recorders.put(operation, new LatencyRecorder());
+            }
+        }
+
+        // runs the operation as a command and returns whether it succeeded
+        boolean run(String operation) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            String date = DatabaseSeeder.FIRST_DATE.plusDays(random.nextInt(DAYS)).toString();
+            switch (operation) {
+                case "search":
+                    return execute(patient, "search_caregiver_schedule " + date);
+                case "reserve": {
+                    boolean booked = execute(patient, "reserve " + date + " " + DatabaseSeeder.VACCINE);
+                    Matcher matcher = APPOINTMENT_ID.matcher(takeOutput());
+                    if (booked && matcher.find()) {
+                        appointments.add(Integer.parseInt(matcher.group(1)));
+                    }
+                    return booked;
+                }
+                case "cancel":
+                    if (appointments.isEmpty()) {
+                        return execute(patient, "cancel 0");
+                    }
+                    return execute(patient, "cancel " + appointments.remove(random.nextInt(appointments.size())));
+                default:
+                    boolean added = execute(caregiver, "add_doses " + DatabaseSeeder.VACCINE + " " + DOSES_PER_UPLOAD);
+                    if (added) {
+                        dosesAdded.addAndGet(DOSES_PER_UPLOAD);
+                    }
+                    return added;
+            }
+        }
+
+        private boolean execute(Session session, String command) {
+            boolean ok = Scheduler.execute(session, command) != Scheduler.Status.FAILED;
+            // nothing but reserve reads the output, so the buffer is not left to grow
+            if (!command.startsWith("reserve")) {
+                output.reset();
+            }
+            return ok;
+        }
+
+        private String takeOutput() {
+            String text = output.toString(StandardCharsets.UTF_8);
+            output.reset();
+            return text;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package scheduler.bench;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.storage.Storage;
+import scheduler.storage.memory.MemoryStorage;
+import scheduler.util.Util;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the hot paths of the scheduler: password hashing, patient login, search_caregiver_schedule and reserve.
+ *
+ * Storage is seeded with benchmark data first. The benchmarks run against the in-memory backend unless the Storage
+ * environment variable picks another one; for SQL Server, point ConnectionUrl at an empty local database that can be
+ * written to, never at production. Every benchmark runs on 1 thread and then on N threads and reports throughput and
+ * latency percentiles, and how many operations failed, e.g. reservations that found no caregiver.
+ *
+ * Every reserve run books into a fresh block of availability uploaded just before it, so none of its reservations
+ * compete for the slots an earlier run used up. If a run books the whole block before its time is up, it stops
+ * there and its throughput is measured over the time it ran:
+ *
+ * <pre>
+ *     java scheduler.bench.SchedulerBenchmark [threads] [seconds]
+ * </pre>
+ */
+public class SchedulerBenchmark {
+
+    private static final int CAREGIVERS = 20_000;
+    private static final int PATIENTS = 20_000;
+    private static final int DAYS = 60;
+    private static final int CAREGIVERS_PER_DAY = 1_000;
+    private static final int APPOINTMENTS = 50_000;
+    // the block of availability every reserve run books into: each of the CAREGIVERS_PER_DAY caregivers takes
+    // RESERVATION_CAPACITY appointments on each of RESERVATION_DAYS days after the seeded ones
+    private static final int RESERVATION_DAYS = 60;
+    private static final int RESERVATION_CAPACITY = 50;
+    private static final long RESERVATION_SLOTS = (long) RESERVATION_DAYS * CAREGIVERS_PER_DAY * RESERVATION_CAPACITY;
+
+    private final int warmupSeconds;
+    private final int measureSeconds;
+
+    // the first day of the current reserve run's block and how many of its slots were handed out
+    private int reservationRuns = 0;
+    private LocalDate reservationStart;
+    private final AtomicLong reservations = new AtomicLong();
+
+    private SchedulerBenchmark(int warmupSeconds, int measureSeconds) {
+        this.warmupSeconds = warmupSeconds;
+        this.measureSeconds = measureSeconds;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length >= 1 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length >= 2 ? Integer.parseInt(args[1]) : 10;
+
+        if (System.getenv("Storage") == null) {
+            Storage.setInstance(MemoryStorage.create());
+        }
+        DatabaseSeeder seeder = new DatabaseSeeder(CAREGIVERS, PATIENTS, DAYS, CAREGIVERS_PER_DAY, APPOINTMENTS,
+                Integer.MAX_VALUE / 2);
+        System.out.println("Seeding " + CAREGIVERS + " caregivers, " + PATIENTS + " patients, " +
+                DAYS * CAREGIVERS_PER_DAY + " availabilities and " + APPOINTMENTS + " appointments...");
+        seeder.seed();
+        Scheduler.start();
+
+        SchedulerBenchmark benchmark = new SchedulerBenchmark(Math.max(1, seconds / 2), seconds);
+        System.out.printf("%-10s %7s %12s %10s %10s %10s %10s %10s%n",
+                "benchmark", "threads", "ops/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+        for (int n : new int[]{1, threads}) {
+            benchmark.run("hash", n, state ->
+                    Util.generateHash(DatabaseSeeder.PASSWORD, state.salt) != null ? Outcome.OK : Outcome.FAILED);
+            benchmark.run("login", n, state ->
+                    new Patient.PatientGetter(DatabaseSeeder.patient(state.randomPatient()), DatabaseSeeder.PASSWORD)
+                            .get() != null ? Outcome.OK : Outcome.FAILED);
+            benchmark.run("search", n, state ->
+                    outcome(Scheduler.execute(state.session, "search_caregiver_schedule " + state.randomDate())));
+            benchmark.seedReservations();
+            benchmark.run("reserve", n, benchmark::reserve);
+        }
+        Storage.getInstance().shutdown();
+    }
+
+    // uploads the next block of availability and starts handing out its slots from the first one
+    private void seedReservations() throws SQLException {
+        reservationStart = DatabaseSeeder.FIRST_DATE.plusDays(DAYS + (long) reservationRuns++ * RESERVATION_DAYS);
+        List<Date> dates = new ArrayList<>(RESERVATION_DAYS);
+        for (int day = 0; day < RESERVATION_DAYS; day++) {
+            dates.add(Date.valueOf(reservationStart.plusDays(day)));
+        }
+        for (int i = 0; i < CAREGIVERS_PER_DAY; i++) {
+            new Caregiver.CaregiverBuilder(DatabaseSeeder.caregiver(i), null, null).build()
+                    .uploadAvailabilities(dates, RESERVATION_CAPACITY);
+        }
+        reservations.set(0);
+    }
+
+    // books the next slot of the block, which fills up one day after the other, until there is none left
+    private Outcome reserve(ThreadState state) {
+        long slot = reservations.getAndIncrement();
+        if (slot >= RESERVATION_SLOTS) {
+            return Outcome.DONE;
+        }
+        LocalDate date = reservationStart.plusDays(slot / (CAREGIVERS_PER_DAY * RESERVATION_CAPACITY));
+        return outcome(Scheduler.execute(state.session, "reserve " + date + " " + DatabaseSeeder.VACCINE));
+    }
+
+    // a command that ran but was turned down, e.g. a reservation that found no caregiver, counts as failed
+    private static Outcome outcome(Scheduler.Status status) {
+        return status == Scheduler.Status.OK ? Outcome.OK : Outcome.FAILED;
+    }
+
+    private void run(String name, int threads, Operation operation) throws Exception {
+        LatencyRecorder[] recorders = new LatencyRecorder[threads];
+        List<Thread> workers = new ArrayList<>();
+        CountDownLatch ready = new CountDownLatch(threads);
+        long start = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long measureUntil = measureFrom + TimeUnit.SECONDS.toNanos(measureSeconds);
+        AtomicLong failures = new AtomicLong();
+        // when the first worker ran out of work, if any did before the time was up
+        AtomicLong doneAt = new AtomicLong(Long.MAX_VALUE);
+
+        for (int t = 0; t < threads; t++) {
+            LatencyRecorder recorder = new LatencyRecorder();
+            recorders[t] = recorder;
+            int patient = t;
+            Thread worker = new Thread(() -> {
+                ThreadState state;
+                try {
+                    state = new ThreadState(patient);
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                    ready.countDown();
+                    return;
+                }
+                ready.countDown();
+                while (System.nanoTime() < start) {
+                    Thread.onSpinWait();
+                }
+                long now;
+                while ((now = System.nanoTime()) < measureUntil) {
+                    Outcome outcome;
+                    try {
+                        outcome = operation.run(state);
+                    } catch (Exception e) {
+                        outcome = Outcome.FAILED;
+                    }
+                    long end = System.nanoTime();
+                    if (outcome == Outcome.DONE) {
+                        doneAt.accumulateAndGet(now, Math::min);
+                        break;
+                    }
+                    if (outcome == Outcome.FAILED) {
+                        failures.incrementAndGet();
+                    }
+                    if (now >= measureFrom) {
+                        recorder.record(end - now);
+                    }
+                }
+            }, name + "-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        ready.await();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        LatencyRecorder merged = LatencyRecorder.merge(recorders);
+        long measuredNanos = Math.min(measureUntil, doneAt.get()) - measureFrom;
+        if (measuredNanos <= 0) {
+            System.out.printf("%-10s %7d   ran out of work during the warmup%n", name, threads);
+            return;
+        }
+        System.out.printf("%-10s %7d %12.1f %10.1f %10.1f %10.1f %10.1f %10.1f%s%s%n",
+                name, threads, merged.getCount() / (measuredNanos / 1e9),
+                micros(merged.percentile(0.50)), micros(merged.percentile(0.90)),
+                micros(merged.percentile(0.99)), micros(merged.percentile(0.999)),
+                micros(merged.percentile(1.0)),
+                failures.get() > 0 ? "  (" + failures.get() + " failed)" : "",
+                doneAt.get() < measureUntil ? "  (ran out of work after " +
+                        TimeUnit.NANOSECONDS.toMillis(measuredNanos) + " ms)" : "");
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1_000.0;
+    }
+
+    private interface Operation {
+        Outcome run(ThreadState state) throws Exception;
+    }
+
+    // DONE: nothing is left to do, e.g. every slot of the reserve run was booked
+    private enum Outcome {
+        OK,
+        FAILED,
+        DONE
+    }
+
+    // everything one benchmark thread needs, so threads never share a session
+    private static class ThreadState {
+        private final Session session = new Session(new PrintStream(OutputStream.nullOutputStream()));
+        private final byte[] salt = Util.generateSalt();
+
+        ThreadState(int patient) throws Exception {
+            Patient loggedIn = new Patient.PatientGetter(DatabaseSeeder.patient(patient), DatabaseSeeder.PASSWORD).get();
+            session.login(loggedIn);
+        }
+
+        int randomPatient() {
+            return ThreadLocalRandom.current().nextInt(PATIENTS);
+        }
+
+        String randomDate() {
+            return DatabaseSeeder.FIRST_DATE.plusDays(ThreadLocalRandom.current().nextInt(DAYS)).toString();
+        }
+    }
+}
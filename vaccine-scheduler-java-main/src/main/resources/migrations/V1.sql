@@ -1,3 +1,5 @@
+-- the original schema, databases created from create.sql before migrations existed are recorded as at this version
+
 CREATE TABLE Caregivers (
     Username varchar(255),
     Salt BINARY(16),
@@ -30,4 +32,4 @@ CREATE TABLE Appointments (
     Caregiver varchar(255) REFERENCES Caregivers (Username),
     Patient varchar(255) REFERENCES Patients (Username),
     Vaccine_Name varchar(255) REFERENCES Vaccines (Name)
-);
\ No newline at end of file
+);
@@ -0,0 +1,9 @@
+-- show_appointments looks up one user's appointments in appointment_id order
+-- (guarded, since databases created from the last create.sql already have them)
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Appointments_Caregiver')
+    CREATE INDEX IX_Appointments_Caregiver ON Appointments (Caregiver, appointment_id)
+        INCLUDE (Time, Patient, Vaccine_Name);
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Appointments_Patient')
+    CREATE INDEX IX_Appointments_Patient ON Appointments (Patient, appointment_id)
+        INCLUDE (Time, Caregiver, Vaccine_Name);
@@ -0,0 +1,7 @@
+-- appointments on a date, e.g. everything booked for a clinic day
+CREATE INDEX IX_Appointments_Time ON Appointments (Time, appointment_id)
+    INCLUDE (Caregiver, Patient, Vaccine_Name);
+
+-- the availabilities of one caregiver, also used to check the foreign key when caregivers change
+-- (lookups by Time alone already seek on the primary key, which starts with Time)
+CREATE INDEX IX_Availabilities_Username ON Availabilities (Username, Time);
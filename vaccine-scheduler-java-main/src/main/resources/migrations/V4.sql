@@ -0,0 +1,9 @@
+-- patients waiting for an appointment between two dates, served in waitlist_id order
+-- (no foreign key on Vaccine_Name, patients may wait for a vaccine that has no doses yet)
+CREATE TABLE Waitlist (
+    waitlist_id INTEGER IDENTITY(1,1) PRIMARY KEY,
+    Patient varchar(255) REFERENCES Patients (Username),
+    Vaccine_Name varchar(255),
+    FromTime date,
+    UntilTime date
+);
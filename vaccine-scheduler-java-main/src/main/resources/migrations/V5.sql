@@ -0,0 +1,36 @@
+-- the change feed every scheduler pulls to keep its in-memory availabilities and doses up to date with the others
+-- (rowversion is database-wide and only moves forward, so one number orders every change)
+
+-- vaccines are few and only their latest doses matter, so the row itself carries the version it was last changed at
+ALTER TABLE Vaccines ADD Version rowversion;
+
+-- availabilities are deleted by reservations, so their changes are kept as rows of their own until they are pruned
+CREATE TABLE AvailabilityChanges (
+    Version rowversion NOT NULL,
+    Time date NOT NULL,
+    Username varchar(255) NOT NULL,
+    Available bit NOT NULL,
+    ChangedAt datetime2 NOT NULL DEFAULT SYSUTCDATETIME()
+);
+
+CREATE CLUSTERED INDEX IX_AvailabilityChanges_Version ON AvailabilityChanges (Version);
+
+-- the newest pruned change, a scheduler that has not read up to it has to load everything again
+CREATE TABLE ChangeFeedHorizon (
+    Id int PRIMARY KEY CHECK (Id = 1),
+    Version binary(8) NOT NULL
+);
+
+INSERT INTO ChangeFeedHorizon (Id, Version) VALUES (1, 0x0000000000000000);
+GO
+
+-- every write path (uploads, reservations, cancellations, the waitlist and provisioning) is covered without changing
+-- any of them; NOCOUNT keeps the trigger's own row counts out of the results of the statements that fire it
+CREATE TRIGGER TR_Availabilities_Changes ON Availabilities AFTER INSERT, DELETE AS
+BEGIN
+    SET NOCOUNT ON;
+    INSERT INTO AvailabilityChanges (Time, Username, Available)
+    SELECT Time, Username, 1 FROM inserted
+    UNION ALL
+    SELECT Time, Username, 0 FROM deleted;
+END;
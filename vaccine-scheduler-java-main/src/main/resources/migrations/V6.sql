@@ -0,0 +1,40 @@
+-- caregivers publish how many appointments they take on a day, and reservations and cancellations count them instead
+-- of deleting and inserting availability rows, which kept the table and its indexes churning
+
+-- a row is one caregiver's day with Capacity slots, Booked of which are taken; existing rows are one free slot
+ALTER TABLE Availabilities ADD
+    Capacity int NOT NULL CONSTRAINT DF_Availabilities_Capacity DEFAULT 1,
+    Booked int NOT NULL CONSTRAINT DF_Availabilities_Booked DEFAULT 0;
+
+-- the change feed carries the free slots of a caregiver's day instead of whether it is available at all
+ALTER TABLE AvailabilityChanges ADD Slots int NOT NULL CONSTRAINT DF_AvailabilityChanges_Slots DEFAULT 0;
+GO
+
+UPDATE AvailabilityChanges SET Slots = CAST(Available AS int);
+
+ALTER TABLE AvailabilityChanges DROP COLUMN Available;
+
+-- never more appointments than slots, and never fewer than none
+ALTER TABLE Availabilities ADD CONSTRAINT CK_Availabilities_Booked CHECK (Booked >= 0 AND Booked <= Capacity);
+GO
+
+-- a change is recorded whenever the free slots of a caregiver's day change, so bookings and cancellations are
+-- covered now that they update rows instead of deleting and inserting them
+ALTER TRIGGER TR_Availabilities_Changes ON Availabilities AFTER INSERT, UPDATE, DELETE AS
+BEGIN
+    SET NOCOUNT ON;
+    INSERT INTO AvailabilityChanges (Time, Username, Slots)
+    SELECT COALESCE(i.Time, d.Time), COALESCE(i.Username, d.Username), ISNULL(i.Capacity - i.Booked, 0)
+    FROM inserted i FULL JOIN deleted d ON i.Time = d.Time AND i.Username = d.Username
+    WHERE ISNULL(i.Capacity - i.Booked, 0) <> ISNULL(d.Capacity - d.Booked, 0);
+END;
+GO
+
+-- appointments booked before took their row with them, so their days get it back with every slot booked; a day the
+-- caregiver uploaded again since keeps its free slot on top
+MERGE Availabilities WITH (HOLDLOCK) AS a
+USING (SELECT Time, Caregiver, COUNT(*) AS Booked FROM Appointments
+       WHERE Time IS NOT NULL AND Caregiver IS NOT NULL GROUP BY Time, Caregiver) AS b
+ON a.Time = b.Time AND a.Username = b.Caregiver
+WHEN MATCHED THEN UPDATE SET Capacity = a.Capacity + b.Booked, Booked = b.Booked
+WHEN NOT MATCHED THEN INSERT (Time, Username, Capacity, Booked) VALUES (b.Time, b.Caregiver, b.Booked, b.Booked);
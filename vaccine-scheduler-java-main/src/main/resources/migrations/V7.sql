@@ -0,0 +1,9 @@
+-- read replicas are only read from while they keep up with the primary, which the primary measures by writing the
+-- time into this row every second and reading back which time each replica has got to
+
+CREATE TABLE ReplicaHeartbeat (
+    Id int PRIMARY KEY CHECK (Id = 1),
+    Beat datetime2 NOT NULL
+);
+
+INSERT INTO ReplicaHeartbeat (Id, Beat) VALUES (1, SYSUTCDATETIME());
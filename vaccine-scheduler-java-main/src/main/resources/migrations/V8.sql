@@ -0,0 +1,5 @@
+-- every scheduler sets its in-memory free slots to what its own writes and the change feed return, each with the
+-- version it was written at, and skips anything older than what it already has; availabilities carry that version
+-- like vaccines do (adding the column writes every row once)
+
+ALTER TABLE Availabilities ADD Version rowversion;
@@ -0,0 +1,224 @@
+package scheduler;
+
+import scheduler.db.ReadConsistency;
+import scheduler.metrics.Metrics;
+import scheduler.storage.ProvisioningBatch;
+import scheduler.storage.UsernameRegistry;
+import scheduler.util.PasswordHasher;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a file of commands without prompts, e.g. a nightly provisioning file, and reports the status of every command.
+ *
+ * Commands run in order in one session, so login and logout work as usual. Runs of independent provisioning commands
+ * (create_patient, create_caregiver, upload_availability and add_doses) are not run one by one but collected into a
+ * {@link ProvisioningBatch} and written in a single transaction. Their passwords are hashed in the background while
+ * the following lines are read. Output is buffered and written when the run ends.
+ */
+public class BatchRunner {
+
+    // most commands written in one transaction
+    private static final int MAX_GROUP_SIZE = 1_000;
+
+    private final PrintStream out;
+    private final ByteArrayOutputStream commandOutput = new ByteArrayOutputStream();
+    private final Session session = new Session(new PrintStream(commandOutput, false, StandardCharsets.UTF_8));
+    private final List<Pending> group = new ArrayList<>();
+    private int succeeded = 0;
+    private int failed = 0;
+
+    public BatchRunner(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Runs every line of the input as a command until the input ends or a quit command. Blank lines and lines
+     * starting with # are skipped.
+     */
+    public void run(BufferedReader in) throws IOException {
+        long start = System.nanoTime();
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            Pending pending = prepare(lineNumber, line);
+            if (pending != null) {
+                group.add(pending);
+                if (group.size() >= MAX_GROUP_SIZE) {
+                    runGroup();
+                }
+                continue;
+            }
+            // anything else may depend on what came before, so the group is written first
+            runGroup();
+            Scheduler.Status status = Scheduler.execute(session, line);
+            report(lineNumber, line, status != Scheduler.Status.FAILED, takeCommandOutput());
+            if (status == Scheduler.Status.QUIT) {
+                break;
+            }
+        }
+        runGroup();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        out.println((succeeded + failed) + " commands: " + succeeded + " succeeded, " + failed + " failed in " +
+                millis + " ms");
+        out.flush();
+    }
+
+    // returns the command as a change for the current group, or null if it has to run on its own
+    private Pending prepare(int lineNumber, String line) {
+        String[] tokens = line.split(" ");
+        String operation = tokens[0];
+        if ((operation.equals("create_patient") || operation.equals("create_caregiver")) && tokens.length == 3) {
+            // a username known to be taken runs on its own to report that, without hashing its password first
+            UsernameRegistry registry = UsernameRegistry.getInstance();
+            if (operation.equals("create_patient") ? registry.isKnownPatient(tokens[1]) :
+                    registry.isKnownCaregiver(tokens[1])) {
+                return null;
+            }
+            byte[] salt = Util.generateSalt();
+            return new Pending(lineNumber, line, tokens, salt, PasswordHasher.hashAsync(tokens[2], salt));
+        }
+        // the commands below need a logged-in caregiver, otherwise they run on their own to report the error
+        if (session.getCaregiver() == null) {
+            return null;
+        }
+        try {
+            if (operation.equals("upload_availability") && tokens.length == 2) {
+                Date.valueOf(tokens[1]);
+                return new Pending(lineNumber, line, tokens, null, null);
+            }
+            if (operation.equals("add_doses") && tokens.length == 3 && Integer.parseInt(tokens[2]) > 0) {
+                return new Pending(lineNumber, line, tokens, null, null);
+            }
+        } catch (IllegalArgumentException e) {
+            // not a valid date or number, the command reports that itself
+        }
+        return null;
+    }
+
+    private void runGroup() {
+        if (group.isEmpty()) {
+            return;
+        }
+        ProvisioningBatch batch = new ProvisioningBatch();
+        int[] positions = new int[group.size()];
+        for (int i = 0; i < group.size(); i++) {
+            Pending pending = group.get(i);
+            String[] tokens = pending.tokens;
+            switch (tokens[0]) {
+                case "create_patient":
+                    positions[i] = batch.addPatient(tokens[1], pending.salt, PasswordHasher.await(pending.hash));
+                    break;
+                case "create_caregiver":
+                    positions[i] = batch.addCaregiver(tokens[1], pending.salt, PasswordHasher.await(pending.hash));
+                    break;
+                case "upload_availability":
+                    positions[i] = batch.addAvailability(session.getCaregiver().getUsername(),
+                            Date.valueOf(tokens[1]).toLocalDate());
+                    break;
+                default:
+                    positions[i] = batch.addDoses(tokens[1], Integer.parseInt(tokens[2]));
+            }
+        }
+        // the whole group is measured as one command, its commands are only measured when they run one by one
+        Metrics.Context context = Metrics.getInstance().begin("provisioning_batch");
+        // written for the session like its commands, so e.g. a login right after sees the new accounts
+        ReadConsistency previous = ReadConsistency.bind(session.getReadConsistency());
+        boolean[] applied = null;
+        try {
+            applied = batch.execute();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            ReadConsistency.bind(previous);
+            Metrics.getInstance().end(context, applied == null);
+        }
+        if (applied != null) {
+            for (int i = 0; i < group.size(); i++) {
+                Pending pending = group.get(i);
+                boolean ok = applied[positions[i]];
+                report(pending.lineNumber, pending.line, ok, message(pending.tokens, ok));
+            }
+        } else {
+            // nothing was written, so run the commands one by one to find out which of them failed
+            for (Pending pending : group) {
+                Scheduler.Status status = Scheduler.execute(session, pending.line);
+                report(pending.lineNumber, pending.line, status != Scheduler.Status.FAILED, takeCommandOutput());
+            }
+        }
+        group.clear();
+    }
+
+    // what the command would have printed if it had run on its own
+    private static String message(String[] tokens, boolean applied) {
+        switch (tokens[0]) {
+            case "create_patient":
+            case "create_caregiver":
+                return applied ? "Created user " + tokens[1] : "Username taken, try again!";
+            case "upload_availability":
+                return applied ? "Availability uploaded!" : "Availability already uploaded!";
+            default:
+                return "Doses updated!";
+        }
+    }
+
+    private void report(int lineNumber, String line, boolean ok, String output) {
+        if (ok) {
+            succeeded++;
+        } else {
+            failed++;
+        }
+        out.println("[" + lineNumber + "] " + (ok ? "OK" : "FAILED") + " " + mask(line));
+        for (String outputLine : output.split("\\R")) {
+            if (!outputLine.isEmpty()) {
+                out.println("    " + outputLine);
+            }
+        }
+    }
+
+    private String takeCommandOutput() {
+        session.flush();
+        String output = commandOutput.toString(StandardCharsets.UTF_8);
+        commandOutput.reset();
+        return output;
+    }
+
+    // never echo passwords back into the report
+    private static String mask(String line) {
+        String[] tokens = line.split(" ");
+        if (tokens.length >= 3 && (tokens[0].startsWith("create_") || tokens[0].startsWith("login_"))) {
+            return tokens[0] + " " + tokens[1] + " ****";
+        }
+        return line;
+    }
+
+    private static class Pending {
+        private final int lineNumber;
+        private final String line;
+        private final String[] tokens;
+        private final byte[] salt;
+        private final Future<byte[]> hash;
+
+        private Pending(int lineNumber, String line, String[] tokens, byte[] salt, Future<byte[]> hash) {
+            this.lineNumber = lineNumber;
+            this.line = line;
+            this.tokens = tokens;
+            this.salt = salt;
+            this.hash = hash;
+        }
+    }
+}
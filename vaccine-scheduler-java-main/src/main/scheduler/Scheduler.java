@@ -1,184 +1,466 @@
 package scheduler;
 
-import scheduler.db.ConnectionManager;
+import scheduler.archive.AppointmentArchive;
+import scheduler.db.ReadConsistency;
+import scheduler.metrics.CommandStats;
+import scheduler.metrics.Metrics;
+import scheduler.model.Appointment;
 import scheduler.model.Caregiver;
 import scheduler.model.Patient;
-import scheduler.model.Vaccine;
+import scheduler.model.WaitlistEntry;
+import scheduler.server.SchedulerServer;
+import scheduler.storage.AvailabilityIndex;
+import scheduler.storage.ChangeFeed;
+import scheduler.storage.Reservation;
+import scheduler.storage.ReservationEngine;
+import scheduler.storage.Storage;
+import scheduler.storage.UsernameRegistry;
+import scheduler.storage.VaccineInventory;
+import scheduler.storage.Waitlist;
+import scheduler.util.CsvWriter;
+import scheduler.util.PasswordHasher;
 import scheduler.util.Util;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
 import java.sql.Date;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    // the outcome of a single command
+    public enum Status {
+        OK,
+        FAILED,
+        QUIT
+    }
 
-    public static void main(String[] args) {
-        // printing greetings text
-        System.out.println();
-        System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
-        System.out.println("*** Please enter one of the following commands ***");
-        System.out.println("> create_patient <username> <password>");
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");
-        System.out.println("> reserve <date> <vaccine>");
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");
-        System.out.println("> logout");
-        System.out.println("> quit");
-        System.out.println();
+    private static final ReservationEngine reservationEngine = new ReservationEngine();
 
-        // read input from user
-        BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
-        while (true) {
-            System.out.print("> ");
-            String response = "";
+    // commands are measured by name, anything else is measured as one "invalid" command
+    private static final Set<String> COMMANDS = Set.of("create_patient", "create_caregiver", "login_patient",
+            "login_caregiver", "search_caregiver_schedule", "search_earliest", "reserve", "reserve_earliest",
+            "upload_availability", "upload_availability_range", "cancel", "cancel_many", "cancel_date", "add_doses",
+            "show_appointments", "show_waitlist", "export_appointments", "export_availability", "show_history", "stats",
+            "logout", "quit");
+
+    // show_appointments pages
+    private static final int APPOINTMENTS_PAGE_SIZE = 100;
+    private static final int MAX_APPOINTMENTS_PAGE_SIZE = 1000;
+
+    // longest range upload_availability_range accepts
+    private static final int MAX_AVAILABILITY_RANGE_DAYS = 366;
+
+    // caregivers who may cancel other caregivers' appointments, e.g. when the whole clinic closes for a day
+    private static final Set<String> CLINIC_ADMINS = Util.readListSetting("ClinicAdmins");
+
+    // most appointments a caregiver can take on one day
+    private static final int MAX_CAPACITY = 1_000;
+
+    // longest time reserve --wait waits for
+    private static final int MAX_WAIT_DAYS = 366;
+
+    // longest range search_earliest and reserve_earliest look at, also how far ahead they look by default
+    private static final int MAX_EARLIEST_RANGE_DAYS = 366;
+
+    // what export_appointments and export_availability export without a range: every date SQL Server can store
+    private static final LocalDate EXPORT_FIRST_DATE = LocalDate.of(1, 1, 1);
+    private static final LocalDate EXPORT_LAST_DATE = LocalDate.of(9999, 12, 31);
+
+    // exports are only ever written inside this directory, given by the ExportDir setting ("exports" by default)
+    private static final Path EXPORT_DIR = Path.of(System.getenv("ExportDir") != null ? System.getenv("ExportDir") :
+            "exports").toAbsolutePath().normalize();
+
+    // how many days of past appointments --archive keeps in storage by default
+    private static final int ARCHIVE_KEEP_DAYS = 30;
+
+    // the sessions every patient is logged in to, so appointments booked from the waitlist can be announced there
+    private static final Map<String, Set<Session>> patientSessions = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) {
+        // --server [port] serves the same commands over TCP instead of the console
+        if (args.length >= 1 && args[0].equals("--server")) {
+            int port = SchedulerServer.DEFAULT_PORT;
+            if (args.length >= 2) {
+                try {
+                    port = Integer.parseInt(args[1]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Please enter a valid port!");
+                    return;
+                }
+            }
+            start();
             try {
-                response = r.readLine();
+                new SchedulerServer(port).serve();
             } catch (IOException e) {
-                System.out.println("Please try again!");
+                System.out.println("Server stopped: " + e.getMessage());
+            } finally {
+                Storage.getInstance().shutdown();
             }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
-            if (tokens.length == 0) {
-                System.out.println("Please try again!");
-                continue;
+            return;
+        }
+
+        // --batch [file] runs a command file, or the commands on stdin, without prompts
+        if (args.length >= 1 && args[0].equals("--batch")) {
+            start();
+            try (BufferedReader in = args.length >= 2 ?
+                    Files.newBufferedReader(Path.of(args[1])) : new BufferedReader(new InputStreamReader(System.in))) {
+                PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+                new BatchRunner(out).run(in);
+            } catch (IOException e) {
+                System.out.println("Could not read commands: " + e.getMessage());
+            } finally {
+                Storage.getInstance().shutdown();
             }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
-                return;
-            } else {
-                System.out.println("Invalid operation name!");
+            return;
+        }
+
+        // --archive [keep_days] moves appointments older than that into the archive and exits, e.g. from cron
+        if (args.length >= 1 && args[0].equals("--archive")) {
+            int keepDays = ARCHIVE_KEEP_DAYS;
+            if (args.length >= 2) {
+                try {
+                    keepDays = Integer.parseInt(args[1]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Please enter a valid number of days!");
+                    return;
+                }
             }
+            start();
+            try {
+                LocalDate cutoff = LocalDate.now().minusDays(Math.max(0, keepDays));
+                int archived = AppointmentArchive.getInstance().archive(cutoff);
+                System.out.println("Archived " + archived + " appointments before " + cutoff);
+            } catch (IOException | SQLException e) {
+                System.out.println("Could not archive appointments: " + e.getMessage());
+            } finally {
+                Storage.getInstance().shutdown();
+            }
+            return;
         }
+
+        start();
+        // read input from user
+        BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
+        serve(new Session(System.out), r);
+        Storage.getInstance().shutdown();
     }
 
-    private static void createPatient(String[] tokens) {
+    // loads what the commands need into memory, must be called once before serving any session
+    public static void start() {
+        Metrics.getInstance().registerMBean();
+        try {
+            Storage.getInstance().start();
+        } catch (SQLException e) {
+            System.out.println("Could not prepare storage: " + e.getMessage());
+        }
+        // load the availabilities and doses into memory so searches and reservations don't have to read them every
+        // time, then keep them up to date with what other schedulers sharing the storage write
+        try {
+            ChangeFeed.getInstance().prepare();
+            AvailabilityIndex.getInstance().load();
+            VaccineInventory.getInstance().load();
+            ChangeFeed.getInstance().start();
+        } catch (SQLException e) {
+            System.out.println("Could not load availabilities and doses, searches will query storage instead");
+        }
+        // the same for usernames, so most create_patient and create_caregiver checks don't need storage
+        try {
+            UsernameRegistry.getInstance().load();
+        } catch (SQLException e) {
+            System.out.println("Could not load usernames, username checks will query storage instead");
+        }
+        // from now on, waiting patients are booked as soon as slots free up
+        Waitlist.getInstance().setListener(Scheduler::announce);
+        try {
+            Waitlist.getInstance().start();
+        } catch (SQLException e) {
+            System.out.println("Could not load the waitlist, waiting patients will not be booked");
+        }
+    }
+
+    /**
+     * Runs the command loop for one session until the user quits or the input ends.
+     */
+    public static void serve(Session session, BufferedReader r) {
+        // printing greetings text
+        session.println();
+        session.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        session.println("*** Please enter one of the following commands ***");
+        session.println("> create_patient <username> <password>");
+        session.println("> create_caregiver <username> <password>");
+        session.println("> login_patient <username> <password>");
+        session.println("> login_caregiver <username> <password>");
+        session.println("> search_caregiver_schedule <date>");
+        session.println("> search_earliest <vaccine> [from] [to]");
+        session.println("> reserve <date> <vaccine> [--wait <last_date>]");
+        session.println("> reserve_earliest <vaccine> [from] [to]");
+        session.println("> upload_availability <date> [--capacity <n>]");
+        session.println("> upload_availability_range <start> <end> [weekdays] [--capacity <n>]");
+        session.println("> cancel <appointment_id>");
+        session.println("> cancel_many <appointment_id> [appointment_id...]");
+        session.println("> cancel_date <date> [caregiver | --all]");
+        session.println("> add_doses <vaccine> <number>");
+        session.println("> show_appointments [after_id] [limit]");
+        session.println("> show_waitlist");
+        session.println("> export_appointments <file> [from] [to]");
+        session.println("> export_availability <file> [from] [to]");
+        session.println("> show_history [from] [to]");
+        session.println("> stats");
+        session.println("> logout");
+        session.println("> quit");
+        session.println();
+
+        try {
+            while (true) {
+                session.print("> ");
+                String response;
+                try {
+                    response = r.readLine();
+                } catch (IOException e) {
+                    return;
+                }
+                // the input ended, same as quitting
+                if (response == null) {
+                    return;
+                }
+                if (execute(session, response) == Status.QUIT) {
+                    return;
+                }
+            }
+        } finally {
+            forgetPatientSession(session);
+        }
+    }
+
+    // tells the patient about an appointment the waitlist booked, in every session they are logged in to
+    private static void announce(Appointment appointment) {
+        Set<Session> sessions = patientSessions.get(appointment.getPatient());
+        if (sessions == null) {
+            return;
+        }
+        for (Session session : sessions) {
+            // the booking was written by the waitlist, but show_appointments should still show it right away
+            session.getReadConsistency().recordWrite();
+            session.println("Booked from the waitlist: Appointment ID " + appointment.getAppointmentId() +
+                    ", Caregiver username " + appointment.getCaregiver() + ", " + appointment.getVaccineName() +
+                    " on " + appointment.getTime());
+            session.flush();
+        }
+    }
+
+    private static void forgetPatientSession(Session session) {
+        if (session.getPatient() != null) {
+            patientSessions.computeIfPresent(session.getPatient().getUsername(), (username, sessions) -> {
+                sessions.remove(session);
+                return sessions.isEmpty() ? null : sessions;
+            });
+        }
+    }
+
+    /**
+     * Runs a single command line in the given session and reports whether it succeeded or the user quit.
+     */
+    public static Status execute(Session session, String response) {
+        String command = response.split(" ")[0];
+        Metrics.Context context = Metrics.getInstance().begin(COMMANDS.contains(command) ? command : "invalid");
+        // reads of the command only go to a replica if the session did not write shortly before
+        ReadConsistency previous = ReadConsistency.bind(session.getReadConsistency());
+        Status status = Status.FAILED;
+        try {
+            status = dispatch(session, response);
+            return status;
+        } catch (RuntimeException e) {
+            Metrics.getInstance().recordError();
+            throw e;
+        } finally {
+            ReadConsistency.bind(previous);
+            Metrics.getInstance().end(context, status == Status.FAILED);
+            session.flush();
+        }
+    }
+
+    private static Status dispatch(Session session, String response) {
+        // split the user input by spaces
+        String[] tokens = response.split(" ");
+        // check if input exists
+        if (tokens.length == 0) {
+            session.println("Please try again!");
+            return Status.FAILED;
+        }
+        // determine which operation to perform
+        String operation = tokens[0];
+        boolean succeeded;
+        if (operation.equals("create_patient")) {
+            succeeded = createPatient(session, tokens);
+        } else if (operation.equals("create_caregiver")) {
+            succeeded = createCaregiver(session, tokens);
+        } else if (operation.equals("login_patient")) {
+            succeeded = loginPatient(session, tokens);
+        } else if (operation.equals("login_caregiver")) {
+            succeeded = loginCaregiver(session, tokens);
+        } else if (operation.equals("search_caregiver_schedule")) {
+            succeeded = searchCaregiverSchedule(session, tokens);
+        } else if (operation.equals("search_earliest")) {
+            succeeded = searchEarliest(session, tokens);
+        } else if (operation.equals("reserve")) {
+            succeeded = reserve(session, tokens);
+        } else if (operation.equals("reserve_earliest")) {
+            succeeded = reserveEarliest(session, tokens);
+        } else if (operation.equals("upload_availability")) {
+            succeeded = uploadAvailability(session, tokens);
+        } else if (operation.equals("upload_availability_range")) {
+            succeeded = uploadAvailabilityRange(session, tokens);
+        } else if (operation.equals("cancel")) {
+            succeeded = cancel(session, tokens);
+        } else if (operation.equals("cancel_many")) {
+            succeeded = cancelMany(session, tokens);
+        } else if (operation.equals("cancel_date")) {
+            succeeded = cancelDate(session, tokens);
+        } else if (operation.equals("add_doses")) {
+            succeeded = addDoses(session, tokens);
+        } else if (operation.equals("show_appointments")) {
+            succeeded = showAppointments(session, tokens);
+        } else if (operation.equals("show_waitlist")) {
+            succeeded = showWaitlist(session, tokens);
+        } else if (operation.equals("export_appointments")) {
+            succeeded = exportAppointments(session, tokens);
+        } else if (operation.equals("export_availability")) {
+            succeeded = exportAvailability(session, tokens);
+        } else if (operation.equals("show_history")) {
+            succeeded = showHistory(session, tokens);
+        } else if (operation.equals("stats")) {
+            succeeded = stats(session, tokens);
+        } else if (operation.equals("logout")) {
+            succeeded = logout(session, tokens);
+        } else if (operation.equals("quit")) {
+            session.println("Bye!");
+            return Status.QUIT;
+        } else {
+            session.println("Invalid operation name!");
+            succeeded = false;
+        }
+        return succeeded ? Status.OK : Status.FAILED;
+    }
+
+    private static boolean createPatient(Session session, String[] tokens) {
         // create_patient <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Create patient failed.");
-            return;
+            session.println("Create patient failed.");
+            return false;
         }
         String username = tokens[1];
         String password = tokens[2];
-        // check 2: check if the username has been taken already
-        if (usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again!");
-            return;
+        // check 2: check if the username has been taken already, usually without asking storage
+        if (usernameExistsPatient(session, username)) {
+            session.println("Username taken, try again!");
+            return false;
         }
         byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        byte[] hash = PasswordHasher.hash(password, salt);
         // create the patient
         try {
             Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
             // save to patient information to our database
             patient.saveToDB();
-            System.out.println("Created user " + username);
+            session.println("Created user " + username);
+            return true;
+        } catch (SQLIntegrityConstraintViolationException e) {
+            // someone else took the username since the check
+            session.println("Username taken, try again!");
+            return false;
         } catch (SQLException e) {
-            System.out.println("Create patient failed.");
+            session.println("Create patient failed.");
             e.printStackTrace();
+            return false;
         }
     }
 
-    private static void createCaregiver(String[] tokens) {
+    private static boolean createCaregiver(Session session, String[] tokens) {
         // create_patient <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
-            return;
+            session.println("Failed to create user.");
+            return false;
         }
         String username = tokens[1];
         String password = tokens[2];
-        // check 2: check if the username has been taken already
-        if (usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again!");
-            return;
+        // check 2: check if the username has been taken already, usually without asking storage
+        if (usernameExistsCaregiver(session, username)) {
+            session.println("Username taken, try again!");
+            return false;
         }
         byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        byte[] hash = PasswordHasher.hash(password, salt);
         // create the caregiver
         try {
             Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build();
             // save to caregiver information to our database
             caregiver.saveToDB();
-            System.out.println("Created user " + username);
+            session.println("Created user " + username);
+            return true;
+        } catch (SQLIntegrityConstraintViolationException e) {
+            // someone else took the username since the check
+            session.println("Username taken, try again!");
+            return false;
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
+            session.println("Failed to create user.");
             e.printStackTrace();
+            return false;
         }
     }
 
-    private static boolean usernameExistsPatient(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+    private static boolean usernameExistsPatient(Session session, String username) {
+        try {
+            return UsernameRegistry.getInstance().isPatientTaken(username);
+        } catch (SQLException e) {
+            session.println("Please try again!");
+            e.printStackTrace();
+        }
+        return true;
+    }
 
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
+    private static boolean usernameExistsCaregiver(Session session, String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return UsernameRegistry.getInstance().isCaregiverTaken(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            session.println("Please try again!");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
 
-    private static void loginPatient(String[] tokens) {
+    private static boolean loginPatient(Session session, String[] tokens) {
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentPatient != null || currentCaregiver != null) {
-            System.out.println("User already logged in, try again.");
-            return;
+        if (session.isLoggedIn()) {
+            session.println("User already logged in, try again.");
+            return false;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login patient failed.");
-            return;
+            session.println("Login patient failed.");
+            return false;
         }
         String username = tokens[1];
         String password = tokens[2];
@@ -187,29 +469,31 @@ public class Scheduler {
         try {
             patient = new Patient.PatientGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
             e.printStackTrace();
         }
         // check if the login was successful
         if (patient == null) {
-            System.out.println("Login failed.");
-        } else {
-            System.out.println("Logged in as " + username);
-            currentPatient = patient;
+            session.println("Login failed.");
+            return false;
         }
+        session.println("Logged in as " + username);
+        session.login(patient);
+        patientSessions.computeIfAbsent(username, u -> ConcurrentHashMap.newKeySet()).add(session);
+        return true;
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private static boolean loginCaregiver(Session session, String[] tokens) {
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
-            return;
+        if (session.isLoggedIn()) {
+            session.println("User already logged in.");
+            return false;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
-            return;
+            session.println("Login failed.");
+            return false;
         }
         String username = tokens[1];
         String password = tokens[2];
@@ -218,333 +502,811 @@ public class Scheduler {
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
             e.printStackTrace();
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Login failed.");
-        } else {
-            System.out.println("Logged in as: " + username);
-            currentCaregiver = caregiver;
+            session.println("Login failed.");
+            return false;
         }
+        session.println("Logged in as: " + username);
+        session.login(caregiver);
+        return true;
     }
 
-    private static void searchCaregiverSchedule(String[] tokens) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String selectAvailableCaregivers = "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username ASC;";
-        String selectVaccines = "SELECT * FROM Vaccines;";
-
+    private static boolean searchCaregiverSchedule(Session session, String[] tokens) {
         // search_caregiver_schedule <date>
         // check 1: check if a caregiver or patient is logged in
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
-            return;
+        if (!session.isLoggedIn()) {
+            session.println("Please login first!");
+            return false;
         }
         // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
         if (tokens.length != 2) {
-            System.out.println("Please try again!");
-            return;
+            session.println("Please try again!");
+            return false;
         }
         String date = tokens[1];
         try {
             // print all available caregivers on given date
-            PreparedStatement caregiversStatement = con.prepareStatement(selectAvailableCaregivers);
-            caregiversStatement.setString(1, date);
-            ResultSet caregiversResultSet = caregiversStatement.executeQuery();
-            while (caregiversResultSet.next())
-            {
-                System.out.println(caregiversResultSet.getString(1)); //or rs.getString("column name");
+            for (String caregiver : AvailabilityIndex.getInstance().getCaregivers(Date.valueOf(date).toLocalDate())) {
+                session.println(caregiver);
             }
 
             // print name of all available vaccines and their amount of doses
-            PreparedStatement vaccinesStatement = con.prepareStatement(selectVaccines);
-            ResultSet vaccinesResultSet = vaccinesStatement.executeQuery();
-            while (vaccinesResultSet.next())
-            {
-                System.out.println(vaccinesResultSet.getString("Name") + " " + vaccinesResultSet.getString("Doses")); //or rs.getString("column name");
+            for (Map.Entry<String, Integer> vaccine : VaccineInventory.getInstance().getAllDoses().entrySet()) {
+                session.println(vaccine.getKey() + " " + vaccine.getValue());
             }
+            return true;
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date!");
+            return false;
+        } catch (SQLException e) {
+            session.println("Please try again!");
+            e.printStackTrace();
+            return false;
+        }
+    }
 
+    private static boolean searchEarliest(Session session, String[] tokens) {
+        // search_earliest <vaccine> [from] [to]
+        // check 1: check if a caregiver or patient is logged in
+        if (!session.isLoggedIn()) {
+            session.println("Please login first!");
+            return false;
+        }
+        // check 2: the length for tokens need to be between 2 and 4 (with the operation name)
+        if (tokens.length < 2 || tokens.length > 4) {
+            session.println("Please try again!");
+            return false;
+        }
+        // check 3: the range has to be valid
+        LocalDate[] range = parseEarliestRange(session, tokens);
+        if (range == null) {
+            return false;
+        }
+        String vaccine = tokens[1];
+        try {
+            // a ceiling lookup in the availability index, without reading every date of the range
+            LocalDate date = AvailabilityIndex.getInstance().firstDate(range[0], range[1]);
+            if (date == null) {
+                session.println("No caregiver is available!");
+                return false;
+            }
+            int doses = VaccineInventory.getInstance().getAllDoses().getOrDefault(vaccine, 0);
+            if (doses <= 0) {
+                session.println("Not enough available doses!");
+                return false;
+            }
+            // print the date, the caregivers available on it and the doses of the vaccine
+            session.println(date.toString());
+            for (String caregiver : AvailabilityIndex.getInstance().getCaregivers(date)) {
+                session.println(caregiver);
+            }
+            session.println(vaccine + " " + doses);
+            return true;
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            session.println("Please try again!");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            return false;
         }
     }
 
-    private static void reserve(String[] tokens) { // [reserve, <date>, <vaccine>]
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String selectCaregiver = "SELECT TOP 1 Username FROM Availabilities WHERE Time = ? ORDER BY Username ASC;";
-        String removeCaregiver = "DELETE FROM Availabilities WHERE Time = ? AND Username = ?;";
-        String updateVaccine = "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = ?";
-        String insertAppointment = "INSERT INTO Appointments (Time , Caregiver, Patient, Vaccine_Name) VALUES (?, ?, ?, ?);";
-        String selectAppointmentID = "SELECT appointment_id FROM Appointments WHERE Time = ? AND Caregiver = ? AND Patient = ? AND Vaccine_Name = ?;";
-        // reserve <date> <vaccine>
+    private static boolean reserve(Session session, String[] tokens) { // [reserve, <date>, <vaccine>]
+        // reserve <date> <vaccine> [--wait <last_date>]
         // check 1: check if the current logged-in user is a patient
-        if (currentPatient == null) {
-            System.out.println("Please login as a patient first!");
-            return;
+        if (session.getPatient() == null) {
+            session.println("Please login as a patient first!");
+            return false;
         }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
+        // check 2: the length for tokens need to be 3, or 5 to wait (with the operation name)
+        if (tokens.length != 3 && !(tokens.length == 5 && tokens[3].equals("--wait"))) {
+            session.println("Please try again!");
+            return false;
         }
-        String date = tokens[1];
         String vaccine = tokens[2];
         try {
-            // obtain the first available caregiver at the given date
-            String caregiver = null;
-            PreparedStatement selectCaregiverStatement = con.prepareStatement(selectCaregiver);
-            selectCaregiverStatement.setString(1, date);
-            ResultSet caregiversResultSet = selectCaregiverStatement.executeQuery();
-            while (caregiversResultSet.next())
-            {
-                caregiver = caregiversResultSet.getString(1);
+            LocalDate date = Date.valueOf(tokens[1]).toLocalDate();
+            LocalDate lastDate = tokens.length == 5 ? Date.valueOf(tokens[4]).toLocalDate() : null;
+            // check 3: the patient can wait for at most a year, starting with the date they asked for
+            if (lastDate != null &&
+                    (lastDate.isBefore(date) || ChronoUnit.DAYS.between(date, lastDate) >= MAX_WAIT_DAYS)) {
+                session.println("Please enter a last date at most " + MAX_WAIT_DAYS + " days after the date!");
+                return false;
             }
-
-            // remove the obtained caregiver from the Availability table
-            PreparedStatement removeCaregiverStatement = con.prepareStatement(removeCaregiver);
-            removeCaregiverStatement.setString(1, date);
-            removeCaregiverStatement.setString(2, caregiver);
-            removeCaregiverStatement.executeUpdate();
-
-            // decrement the amount of doses for the chosen vaccine
-            PreparedStatement updateVaccineStatement = con.prepareStatement(updateVaccine);
-            updateVaccineStatement.setString(1, vaccine);
-            updateVaccineStatement.executeUpdate();
-
-            // inserting appointment with the date, caregiver, patient, and vaccine
-            PreparedStatement insertAppointmentStatement = con.prepareStatement(insertAppointment);
-            insertAppointmentStatement.setString(1, date);
-            insertAppointmentStatement.setString(2, caregiver);
-            insertAppointmentStatement.setString(3, currentPatient.getUsername());
-            insertAppointmentStatement.setString(4, vaccine);
-            insertAppointmentStatement.executeUpdate();
-
-            // selecting the appointment_id
-            PreparedStatement selectAppointmentIDStatement = con.prepareStatement(selectAppointmentID);
-            selectAppointmentIDStatement.setString(1, date);
-            selectAppointmentIDStatement.setString(2, caregiver);
-            selectAppointmentIDStatement.setString(3, currentPatient.getUsername());
-            selectAppointmentIDStatement.setString(4, vaccine);
-            ResultSet selectAppointmentIDResultSet = selectAppointmentIDStatement.executeQuery();
-            String appointmentID = null;
-            while (selectAppointmentIDResultSet.next())
-            {
-                appointmentID = selectAppointmentIDResultSet.getString("appointment_id");
+            // claim the caregiver, take the dose and book the appointment in one transaction
+            Reservation reservation =
+                    reservationEngine.reserve(date, vaccine, session.getPatient().getUsername());
+            switch (reservation.getStatus()) {
+                case NO_CAREGIVER:
+                    session.println("No caregiver is available!");
+                    return lastDate != null && joinWaitlist(session, vaccine, date, lastDate);
+                case NOT_ENOUGH_DOSES:
+                    session.println("Not enough available doses!");
+                    return lastDate != null && joinWaitlist(session, vaccine, date, lastDate);
+                default:
+                    // printing out string to console for user
+                    session.println("Appointment ID " + reservation.getAppointmentId() +
+                            ", Caregiver username " + reservation.getCaregiver());
+                    return true;
             }
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date!");
+            return false;
+        } catch (SQLException e) {
+            session.println("Please try again!");
+            e.printStackTrace();
+            return false;
+        }
+    }
 
-            // printing out string to console for user
-            System.out.println("Appointment ID " + appointmentID + ", Caregiver username " + caregiver);
+    private static boolean reserveEarliest(Session session, String[] tokens) {
+        // reserve_earliest <vaccine> [from] [to]
+        // check 1: check if the current logged-in user is a patient
+        if (session.getPatient() == null) {
+            session.println("Please login as a patient first!");
+            return false;
+        }
+        // check 2: the length for tokens need to be between 2 and 4 (with the operation name)
+        if (tokens.length < 2 || tokens.length > 4) {
+            session.println("Please try again!");
+            return false;
+        }
+        // check 3: the range has to be valid
+        LocalDate[] range = parseEarliestRange(session, tokens);
+        if (range == null) {
+            return false;
+        }
+        try {
+            // find the earliest date with a caregiver and book it in one transaction
+            Reservation reservation = reservationEngine.reserveEarliest(tokens[1],
+                    session.getPatient().getUsername(), range[0], range[1]);
+            switch (reservation.getStatus()) {
+                case NO_CAREGIVER:
+                    session.println("No caregiver is available!");
+                    return false;
+                case NOT_ENOUGH_DOSES:
+                    session.println("Not enough available doses!");
+                    return false;
+                default:
+                    session.println("Appointment ID " + reservation.getAppointmentId() +
+                            ", Caregiver username " + reservation.getCaregiver() + ", Date " + reservation.getDate());
+                    return true;
+            }
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            session.println("Please try again!");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            return false;
+        }
+    }
+
+    // the [from] [to] range after the vaccine, from today and for as long as allowed by default; null if it is
+    // not valid, after telling the user why
+    private static LocalDate[] parseEarliestRange(Session session, String[] tokens) {
+        LocalDate from;
+        LocalDate to;
+        try {
+            from = tokens.length >= 3 ? Date.valueOf(tokens[2]).toLocalDate() : LocalDate.now();
+            to = tokens.length == 4 ? Date.valueOf(tokens[3]).toLocalDate() :
+                    from.plusDays(MAX_EARLIEST_RANGE_DAYS - 1);
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date!");
+            return null;
         }
+        if (to.isBefore(from) || ChronoUnit.DAYS.between(from, to) >= MAX_EARLIEST_RANGE_DAYS) {
+            session.println("Please enter a range of at most " + MAX_EARLIEST_RANGE_DAYS + " days!");
+            return null;
+        }
+        return new LocalDate[] {from, to};
+    }
 
+    // the waitlist books the first slot that frees up between the dates and tells the patient if they are logged in
+    private static boolean joinWaitlist(Session session, String vaccine, LocalDate date, LocalDate lastDate)
+            throws SQLException {
+        WaitlistEntry entry = Waitlist.getInstance().join(session.getPatient().getUsername(), vaccine, date, lastDate);
+        session.println("Waitlist ID " + entry.getWaitlistId() + ", you will get the first appointment between " +
+                date + " and " + lastDate + " that becomes available");
+        return true;
     }
 
-    private static void uploadAvailability(String[] tokens) {
-        // upload_availability <date>
+    private static boolean uploadAvailability(Session session, String[] tokens) {
+        // upload_availability <date> [--capacity <n>]
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
-            return;
+        if (session.getCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
+            return false;
         }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
-            return;
+        // check 2: the length for tokens need to be 2, or 4 with a capacity (with the operation name)
+        if (tokens.length != 2 && !(tokens.length == 4 && tokens[2].equals("--capacity"))) {
+            session.println("Please try again!");
+            return false;
+        }
+        // check 3: the caregiver takes one appointment on the day unless they say otherwise
+        int capacity = tokens.length == 4 ? parseCapacity(tokens[3]) : 1;
+        if (capacity < 0) {
+            session.println("Please enter a capacity from 1 to " + MAX_CAPACITY + "!");
+            return false;
         }
         String date = tokens[1];
         try {
             Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
+            // a date only takes more slots with a larger capacity, so booked-out dates stay booked out
+            if (!session.getCaregiver().uploadAvailability(d, capacity)) {
+                session.println("Availability already uploaded!");
+                return false;
+            }
+            session.println("Availability uploaded!");
+            return true;
         } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            session.println("Please enter a valid date!");
+            return false;
         } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
+            session.println("Error occurred when uploading availability");
             e.printStackTrace();
+            return false;
         }
     }
 
-    private static void cancel(String[] tokens) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String selectAppointment = "SELECT * FROM Appointments WHERE appointment_id = ?;";
-        String deleteAppointment = "DELETE FROM Appointments WHERE appointment_id = ?;";
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
-        String addVaccineDose = "UPDATE Vaccines SET Doses = Doses + 1 WHERE Name = ?;";
-
-        // check 1: if currentCaregiver and currentPatient are both null meaning there is no user logged in,
-        // as the user to login first.
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first.");
-            return;
+    private static boolean uploadAvailabilityRange(Session session, String[] tokens) {
+        // upload_availability_range <start> <end> [weekdays] [--capacity <n>]
+        // check 1: check if the current logged-in user is a caregiver
+        if (session.getCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
+            return false;
         }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
-            return;
+        // check 2: a capacity comes last, without it the length for tokens need to be 3 or 4 to include all
+        // information (with the operation name)
+        int length = tokens.length;
+        int capacity = 1;
+        if (length >= 5 && tokens[length - 2].equals("--capacity")) {
+            capacity = parseCapacity(tokens[length - 1]);
+            if (capacity < 0) {
+                session.println("Please enter a capacity from 1 to " + MAX_CAPACITY + "!");
+                return false;
+            }
+            length -= 2;
         }
-        String appointmentID = tokens[1];
+        if (length != 3 && length != 4) {
+            session.println("Please try again!");
+            return false;
+        }
+        LocalDate start;
+        LocalDate end;
         try {
-            Date time = null;
-            String caregiver = null;
-            String vaccineName = null;
-
-            PreparedStatement selectAppointmentStatement = con.prepareStatement(selectAppointment);
-            selectAppointmentStatement.setString(1, appointmentID);
-            ResultSet selectAppointmentsResultSet = selectAppointmentStatement.executeQuery();
-            while (selectAppointmentsResultSet.next())
-            {
-                time = selectAppointmentsResultSet.getDate("Time");
-                caregiver = selectAppointmentsResultSet.getString("Caregiver");
-                vaccineName = selectAppointmentsResultSet.getString("Vaccine_Name");
+            start = Date.valueOf(tokens[1]).toLocalDate();
+            end = Date.valueOf(tokens[2]).toLocalDate();
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date!");
+            return false;
+        }
+        // check 3: the range has to be in order and at most a year long
+        if (end.isBefore(start) || ChronoUnit.DAYS.between(start, end) >= MAX_AVAILABILITY_RANGE_DAYS) {
+            session.println("Please enter a range of at most " + MAX_AVAILABILITY_RANGE_DAYS + " days!");
+            return false;
+        }
+        // check 4: weekdays are given as a comma-separated list like mon,wed,fri, all days by default
+        Set<DayOfWeek> weekdays = EnumSet.allOf(DayOfWeek.class);
+        if (length == 4) {
+            weekdays = parseWeekdays(tokens[3]);
+            if (weekdays == null) {
+                session.println("Please enter weekdays like mon,wed,fri!");
+                return false;
+            }
+        }
+        List<Date> dates = new ArrayList<>();
+        for (LocalDate day = start; !day.isAfter(end); day = day.plusDays(1)) {
+            if (weekdays.contains(day.getDayOfWeek())) {
+                dates.add(Date.valueOf(day));
             }
+        }
+        if (dates.isEmpty()) {
+            session.println("No dates in range!");
+            return false;
+        }
+        try {
+            int added = session.getCaregiver().uploadAvailabilities(dates, capacity);
+            session.println("Availability uploaded for " + added + " new date(s), " +
+                    (dates.size() - added) + " already uploaded!");
+            return true;
+        } catch (SQLException e) {
+            session.println("Error occurred when uploading availability");
+            e.printStackTrace();
+            return false;
+        }
+    }
 
-            PreparedStatement deleteAppointmentStatement = con.prepareStatement(deleteAppointment);
-            deleteAppointmentStatement.setString(1, appointmentID);
-            deleteAppointmentStatement.executeUpdate();
+    // a capacity from 1 to MAX_CAPACITY, or -1 if it is anything else
+    private static int parseCapacity(String capacity) {
+        try {
+            int n = Integer.parseInt(capacity);
+            return n >= 1 && n <= MAX_CAPACITY ? n : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
 
-            PreparedStatement addAvailabilityStatement = con.prepareStatement(addAvailability);
-            addAvailabilityStatement.setDate(1, time);
-            addAvailabilityStatement.setString(2, caregiver);
-            addAvailabilityStatement.executeUpdate();
+    // parses a list like mon,wed,fri, returns null if any of the days is not a weekday
+    private static Set<DayOfWeek> parseWeekdays(String list) {
+        Set<DayOfWeek> weekdays = EnumSet.noneOf(DayOfWeek.class);
+        for (String name : list.split(",")) {
+            DayOfWeek match = null;
+            for (DayOfWeek day : DayOfWeek.values()) {
+                if (name.length() >= 3 && day.name().startsWith(name.toUpperCase())) {
+                    match = day;
+                }
+            }
+            if (match == null) {
+                return null;
+            }
+            weekdays.add(match);
+        }
+        return weekdays;
+    }
 
-            PreparedStatement addVaccineDoseStatement = con.prepareStatement(addVaccineDose);
-            addVaccineDoseStatement.setString(1, vaccineName);
-            addVaccineDoseStatement.executeUpdate();
+    private static boolean cancel(Session session, String[] tokens) {
+        // check 1: if there is no user logged in to this session, ask the user to login first.
+        if (!session.isLoggedIn()) {
+            session.println("Please login first.");
+            return false;
+        }
+        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
+        if (tokens.length != 2) {
+            session.println("Please try again!");
+            return false;
+        }
+        int appointmentId;
+        try {
+            appointmentId = Integer.parseInt(tokens[1]);
+        } catch (NumberFormatException e) {
+            session.println("Please try again!");
+            return false;
+        }
+        // check 3: only the user's own appointment is cancelled, anybody else's is reported as not found
+        String patient = session.getPatient() != null ? session.getPatient().getUsername() : null;
+        String caregiver = session.getCaregiver() != null ? session.getCaregiver().getUsername() : null;
+        try {
+            // the appointment is deleted and its availability and dose given back in one transaction
+            if (reservationEngine.cancel(appointmentId, patient, caregiver) == null) {
+                session.println("Appointment not found!");
+                return false;
+            }
+            session.println("Appointment successfully deleted.");
+            return true;
+        } catch (SQLException e) {
+            session.println("Please try again!");
+            e.printStackTrace();
+            return false;
+        }
+    }
 
-            System.out.println("Appointment successfully deleted.");
+    private static boolean cancelMany(Session session, String[] tokens) {
+        // cancel_many <appointment_id> [appointment_id...]
+        // check 1: if there is no user logged in to this session, ask the user to login first.
+        if (!session.isLoggedIn()) {
+            session.println("Please login first.");
+            return false;
+        }
+        // check 2: there has to be at least one appointment id
+        if (tokens.length < 2) {
+            session.println("Please try again!");
+            return false;
+        }
+        Set<Integer> appointmentIds = new TreeSet<>();
+        try {
+            for (int i = 1; i < tokens.length; i++) {
+                appointmentIds.add(Integer.parseInt(tokens[i]));
+            }
+        } catch (NumberFormatException e) {
+            session.println("Please try again!");
+            return false;
+        }
+        // check 3: only the user's own appointments are cancelled, anybody else's are reported as not found
+        String patient = session.getPatient() != null ? session.getPatient().getUsername() : null;
+        String caregiver = session.getCaregiver() != null ? session.getCaregiver().getUsername() : null;
+        try {
+            // every appointment is deleted and the availabilities and doses given back in one transaction
+            List<Appointment> cancelled =
+                    reservationEngine.cancelAll(new ArrayList<>(appointmentIds), patient, caregiver);
+            for (Appointment appointment : cancelled) {
+                appointmentIds.remove(appointment.getAppointmentId());
+            }
+            for (int appointmentId : appointmentIds) {
+                session.println("Appointment " + appointmentId + " not found!");
+            }
+            session.println(cancelled.size() + " appointments successfully deleted.");
+            return appointmentIds.isEmpty();
+        } catch (SQLException e) {
+            session.println("Please try again!");
+            e.printStackTrace();
+            return false;
+        }
+    }
 
+    private static boolean cancelDate(Session session, String[] tokens) {
+        // cancel_date <date> [caregiver | --all]
+        // check 1: check if the current logged-in user is a caregiver
+        if (session.getCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
+            return false;
+        }
+        // check 2: the date, and optionally another caregiver whose appointments to cancel or --all for everyone's
+        if (tokens.length != 2 && tokens.length != 3) {
+            session.println("Please try again!");
+            return false;
+        }
+        LocalDate date;
+        try {
+            date = Date.valueOf(tokens[1]).toLocalDate();
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date!");
+            return false;
+        }
+        // check 3: caregivers cancel their own appointments, only clinic admins may cancel anybody else's
+        String caregiver = session.getCaregiver().getUsername();
+        if (tokens.length == 3) {
+            String target = tokens[2].equals("--all") ? null : tokens[2];
+            if (!caregiver.equals(target) && !CLINIC_ADMINS.contains(caregiver)) {
+                session.println("Only clinic admins can cancel other caregivers' appointments!");
+                return false;
+            }
+            caregiver = target;
+        }
+        try {
+            List<Appointment> cancelled = reservationEngine.cancelOn(date, caregiver);
+            session.println(cancelled.size() + " appointments on " + date + " successfully deleted.");
+            return true;
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            session.println("Please try again!");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            return false;
         }
     }
 
-    private static void addDoses(String[] tokens) {
+    private static boolean addDoses(Session session, String[] tokens) {
         // add_doses <vaccine> <number>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
-            return;
+        if (session.getCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
+            return false;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
+            session.println("Please try again!");
+            return false;
         }
         String vaccineName = tokens[1];
-        int doses = Integer.parseInt(tokens[2]);
-        Vaccine vaccine = null;
+        int doses;
+        try {
+            doses = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            session.println("Please enter a valid number of doses!");
+            return false;
+        }
+        // check 3: only positive amounts of doses can be added
+        if (doses <= 0) {
+            session.println("Please enter a valid number of doses!");
+            return false;
+        }
+        // adds the doses on the server in one round trip, creating the vaccine if it doesn't exist yet
         try {
-            vaccine = new Vaccine.VaccineGetter(vaccineName).get();
+            VaccineInventory.getInstance().adjust(vaccineName, doses);
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
+            session.println("Error occurred when adding doses");
             e.printStackTrace();
+            return false;
         }
-        // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
-        //          table
-        if (vaccine == null) {
-            try {
-                vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
-                vaccine.saveToDB();
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+        session.println("Doses updated!");
+        return true;
+    }
+
+    private static boolean showAppointments(Session session, String[] tokens) {
+        // show_appointments [after_id] [limit]
+        // check 1: if there is no user logged in to this session, ask the user to login first.
+        if (!session.isLoggedIn()) {
+            session.println("Please login first.");
+            return false;
+        }
+        // check 2: the length for tokens need to be between 1 and 3 (with the operation name)
+        if (tokens.length > 3) {
+            session.println("Please try again!");
+            return false;
+        }
+        int afterId = 0;
+        int limit = APPOINTMENTS_PAGE_SIZE;
+        try {
+            if (tokens.length >= 2) {
+                afterId = Integer.parseInt(tokens[1]);
             }
-        } else {
-            // if the vaccine is not null, meaning that the vaccine already exists in our table
-            try {
-                vaccine.increaseAvailableDoses(doses);
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+            if (tokens.length == 3) {
+                limit = Integer.parseInt(tokens[2]);
+            }
+        } catch (NumberFormatException e) {
+            session.println("Please try again!");
+            return false;
+        }
+        // check 3: the page size has to be positive and is capped so a single page stays small
+        if (afterId < 0 || limit <= 0 || limit > MAX_APPOINTMENTS_PAGE_SIZE) {
+            session.println("Please try again!");
+            return false;
+        }
+        // storage filters by the logged-in user and pages by appointment_id, so only one page of the user's own
+        // appointments is read, no matter how many appointments there are in total
+        Caregiver caregiver = session.getCaregiver();
+        // for caregivers the other party is the patient, for patients it's the caregiver
+        int[] count = {0};
+        int[] lastId = {afterId};
+        Consumer<Appointment> printer = appointment -> {
+            lastId[0] = appointment.getAppointmentId();
+            session.println(appointment.getAppointmentId() + " " + appointment.getVaccineName() + " " +
+                    appointment.getTime() + " " +
+                    (caregiver != null ? appointment.getPatient() : appointment.getCaregiver()));
+            count[0]++;
+        };
+        try {
+            if (caregiver != null) {
+                Storage.getInstance().getAppointments().forEachOfCaregiver(caregiver.getUsername(), afterId, limit,
+                        printer);
+            } else {
+                Storage.getInstance().getAppointments().forEachOfPatient(session.getPatient().getUsername(), afterId,
+                        limit, printer);
+            }
+            // a full page means there may be more, tell the user how to get the next one
+            if (count[0] == limit) {
+                session.println("More appointments: show_appointments " + lastId[0] + " " + limit);
             }
+            return true;
+        } catch (SQLException e) {
+            session.println("Please try again!");
+            e.printStackTrace();
+            return false;
         }
-        System.out.println("Doses updated!");
     }
 
-    private static void showAppointments(String[] tokens) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String selectAppointments = "SELECT * FROM Appointments ORDER BY appointment_id";
-        // check 1: if currentCaregiver and currentPatient are both null meaning there is no user logged in,
-        // as the user to login first.
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first.");
-            return;
+    private static boolean showWaitlist(Session session, String[] tokens) {
+        // show_waitlist
+        // check 1: check if the current logged-in user is a patient
+        if (session.getPatient() == null) {
+            session.println("Please login as a patient first!");
+            return false;
         }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        // check 2: the length for tokens need to be exactly 1 (the operation name)
         if (tokens.length != 1) {
-            System.out.println("Please try again!");
-            return;
+            session.println("Please try again!");
+            return false;
+        }
+        // the waitlist is kept in memory, so this never reads storage
+        for (WaitlistEntry entry : Waitlist.getInstance().getEntries(session.getPatient().getUsername())) {
+            session.println(entry.getWaitlistId() + " " + entry.getVaccineName() + " " + entry.getFrom() + " " +
+                    entry.getUntil());
         }
+        return true;
+    }
+
+    private static boolean exportAppointments(Session session, String[] tokens) {
+        // export_appointments <file> [from] [to]
+        LocalDate[] range = checkExport(session, tokens);
+        if (range == null) {
+            return false;
+        }
+        // rows are streamed from storage straight into the file, none of them are kept
+        return export(session, tokens[1], "appointments", csv -> {
+            csv.field("appointment_id").field("date").field("caregiver").field("patient").field("vaccine").endRow();
+            Storage.getInstance().getAppointments().forEachBetween(range[0], range[1], appointment -> {
+                csv.field(appointment.getAppointmentId()).field(appointment.getTime())
+                        .field(appointment.getCaregiver()).field(appointment.getPatient())
+                        .field(appointment.getVaccineName());
+                endRow(csv);
+            });
+        });
+    }
+
+    private static boolean exportAvailability(Session session, String[] tokens) {
+        // export_availability <file> [from] [to]
+        LocalDate[] range = checkExport(session, tokens);
+        if (range == null) {
+            return false;
+        }
+        return export(session, tokens[1], "availabilities", csv -> {
+            csv.field("date").field("caregiver").field("capacity").field("booked").endRow();
+            Storage.getInstance().getAvailabilities().forEachBetween(range[0], range[1],
+                    (date, caregiver, capacity, booked) -> {
+                        csv.field(date).field(caregiver).field(capacity).field(booked);
+                        endRow(csv);
+                    });
+        });
+    }
+
+    // the date range of an export command; null if the command cannot run, after telling the user why
+    private static LocalDate[] checkExport(Session session, String[] tokens) {
+        // check 1: check if the current logged-in user is a caregiver
+        if (session.getCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
+            return null;
+        }
+        // check 2: the length for tokens need to be between 2 and 4 (with the operation name)
+        if (tokens.length < 2 || tokens.length > 4) {
+            session.println("Please try again!");
+            return null;
+        }
+        // check 3: the range has to be in order, everything by default
         try {
-            String appointmentID = null;
-            String time = null;
-            String caregiver = null;
-            String patient = null;
-            String vaccineName = null;
-
-            // selecting all appointments and printing information based on circumstances
-            PreparedStatement selectAppointmentsStatement = con.prepareStatement(selectAppointments);
-            ResultSet selectAppointmentsResultSet = selectAppointmentsStatement.executeQuery();
-            while (selectAppointmentsResultSet.next())
-            {
-                appointmentID = selectAppointmentsResultSet.getString("appointment_id");
-                time = selectAppointmentsResultSet.getString("Time");
-                caregiver = selectAppointmentsResultSet.getString("Caregiver");
-                patient = selectAppointmentsResultSet.getString("Patient");
-                vaccineName = selectAppointmentsResultSet.getString("Vaccine_Name");
-                if (currentCaregiver != null) {
-                    if (currentCaregiver.getUsername().equals(caregiver)) {
-                        System.out.println(appointmentID + " " + vaccineName + " " + time + " " + patient);
-                    }
-                } else {
-                    if (currentPatient.getUsername().equals(patient)) {
-                        System.out.println(appointmentID + " " + vaccineName + " " + time + " " + caregiver);
-                    }
-                }
+            LocalDate from = tokens.length >= 3 ? Date.valueOf(tokens[2]).toLocalDate() : EXPORT_FIRST_DATE;
+            LocalDate to = tokens.length == 4 ? Date.valueOf(tokens[3]).toLocalDate() : EXPORT_LAST_DATE;
+            if (to.isBefore(from)) {
+                session.println("Please enter a valid range!");
+                return null;
             }
+            return new LocalDate[] {from, to};
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date!");
+            return null;
+        }
+    }
+
+    // writes the file into the export directory on the machine the scheduler runs on, and reports how many rows it
+    // holds
+    private static boolean export(Session session, String file, String what, Export export) {
+        Path path;
+        try {
+            path = exportPath(file);
+        } catch (IOException | InvalidPathException e) {
+            session.println("Could not write " + file + "!");
+            return false;
+        }
+        if (path == null) {
+            session.println("Please enter a file name inside the export directory!");
+            return false;
+        }
+        try (CsvWriter csv = new CsvWriter(path)) {
+            export.run(csv);
+            // the header is not an exported row
+            session.println("Exported " + (csv.getRows() - 1) + " " + what + " to " + file);
+            return true;
+        } catch (IOException | UncheckedIOException | InvalidPathException e) {
+            session.println("Could not write " + file + "!");
+            return false;
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            session.println("Please try again!");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            return false;
         }
     }
 
-    private static void logout(String[] tokens) {
-        // check 1: if currentCaregiver and currentPatient are both null meaning there is no user logged in,
-        // as the user to login first.
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first.");
-            return;
+    /**
+     * The file in the export directory the name refers to, creating the directories it is in, or null if the name is
+     * absolute or leads out of the export directory, e.g. with ".." or a link. Names come from clients that may be
+     * connected over the network, so they must never reach any other file the scheduler can write.
+     */
+    private static Path exportPath(String file) throws IOException {
+        Path name = Path.of(file);
+        if (name.isAbsolute()) {
+            return null;
+        }
+        Path path = EXPORT_DIR.resolve(name).normalize();
+        if (!path.startsWith(EXPORT_DIR) || path.equals(EXPORT_DIR)) {
+            return null;
+        }
+        // a directory on the way may be a link to somewhere else, so the deepest one that exists has to resolve to
+        // the export directory before any missing ones are created; the file itself is never followed as a link
+        Files.createDirectories(EXPORT_DIR);
+        Path existing = path.getParent();
+        while (!Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        if (!existing.toRealPath().startsWith(EXPORT_DIR.toRealPath())) {
+            return null;
+        }
+        Files.createDirectories(path.getParent());
+        return path;
+    }
+
+    // rows are ended inside the consumers of the repositories, which cannot throw IOException
+    private static void endRow(CsvWriter csv) {
+        try {
+            csv.endRow();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface Export {
+        void run(CsvWriter csv) throws IOException, SQLException;
+    }
+
+    private static boolean showHistory(Session session, String[] tokens) {
+        // show_history [from] [to]
+        // check 1: if there is no user logged in to this session, ask the user to login first.
+        if (!session.isLoggedIn()) {
+            session.println("Please login first.");
+            return false;
+        }
+        // check 2: the length for tokens need to be between 1 and 3 (with the operation name)
+        if (tokens.length > 3) {
+            session.println("Please try again!");
+            return false;
+        }
+        // check 3: the range has to be in order, the whole archive by default
+        LocalDate from;
+        LocalDate to;
+        try {
+            from = tokens.length >= 2 ? Date.valueOf(tokens[1]).toLocalDate() : EXPORT_FIRST_DATE;
+            to = tokens.length == 3 ? Date.valueOf(tokens[2]).toLocalDate() : LocalDate.now();
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date!");
+            return false;
+        }
+        if (to.isBefore(from)) {
+            session.println("Please enter a valid range!");
+            return false;
+        }
+        // archived appointments are read from the archive files, never from storage
+        Caregiver caregiver = session.getCaregiver();
+        AppointmentArchive archive = AppointmentArchive.getInstance();
+        try {
+            if (caregiver != null) {
+                archive.forEachOfCaregiver(caregiver.getUsername(), from, to, appointment ->
+                        session.println(appointment.getAppointmentId() + " " + appointment.getVaccineName() + " " +
+                                appointment.getTime() + " " + appointment.getPatient()));
+            } else {
+                archive.forEachOfPatient(session.getPatient().getUsername(), from, to, appointment ->
+                        session.println(appointment.getAppointmentId() + " " + appointment.getVaccineName() + " " +
+                                appointment.getTime() + " " + appointment.getCaregiver()));
+            }
+            return true;
+        } catch (IOException e) {
+            session.println("Could not read the archive!");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static boolean stats(Session session, String[] tokens) {
+        // stats
+        // check 1: the length for tokens need to be exactly 1 (with the operation name)
+        if (tokens.length != 1) {
+            session.println("Please try again!");
+            return false;
+        }
+        // latencies are per run, round trips, database time and connection waits are averaged over all runs, retries
+        // are counted over all runs
+        session.println(String.format("%-26s %8s %7s %7s %10s %10s %10s %10s %7s %10s %10s %10s %7s", "command",
+                "count", "failed", "errors", "p50 us", "p99 us", "p99.9 us", "max us", "trips", "db us", "wait us",
+                "wait p99", "retries"));
+        for (Map.Entry<String, CommandStats> entry : Metrics.getInstance().getCommands().entrySet()) {
+            CommandStats stats = entry.getValue();
+            long count = Math.max(1, stats.getCount());
+            session.println(String.format(
+                    "%-26s %8d %7d %7d %10.1f %10.1f %10.1f %10.1f %7.2f %10.1f %10.1f %10.1f %7d",
+                    entry.getKey(), stats.getCount(), stats.getFailed(), stats.getErrors(), stats.getP50Micros(),
+                    stats.getP99Micros(), stats.getP999Micros(), stats.getMaxMicros(),
+                    stats.getRoundTrips() / (double) count, stats.getDatabaseMicros() / count,
+                    stats.getConnectionWaitMicros() / count, stats.getConnectionWaitP99Micros(), stats.getRetries()));
+        }
+        return true;
+    }
+
+    private static boolean logout(Session session, String[] tokens) {
+        // check 1: if there is no user logged in to this session, ask the user to login first.
+        if (!session.isLoggedIn()) {
+            session.println("Please login first.");
+            return false;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 1) {
-            System.out.println("Please try again!");
-            return;
+            session.println("Please try again!");
+            return false;
         }
         try {
-            // setting to null to get rid of any login
-            currentPatient = null;
-            currentCaregiver = null;
-            System.out.println("Successfully logged out");
+            // forgetting the user to get rid of any login
+            forgetPatientSession(session);
+            session.logout();
+            session.println("Successfully logged out");
+            return true;
         } catch (Exception e) {
-            System.out.println("Please try again.");
+            session.println("Please try again.");
             e.printStackTrace();
+            return false;
         }
     }
 }
@@ -0,0 +1,76 @@
+package scheduler;
+
+import scheduler.db.ReadConsistency;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.io.PrintStream;
+
+/**
+ * The state of one user of the scheduler: who is logged in and where command output goes. Every connection to the
+ * server and the interactive console get their own session, so users never see each other's login.
+ */
+public class Session {
+    private final PrintStream out;
+
+    // the currently logged-in user
+    // Note: it is always true that at most one of caregiver and patient is not null
+    //       since only one user can be logged-in per session at a time
+    private Caregiver caregiver = null;
+    private Patient patient = null;
+
+    // what this session wrote recently, so its reads see its own writes even when replicas lag behind
+    private final ReadConsistency readConsistency = new ReadConsistency();
+
+    public Session(PrintStream out) {
+        this.out = out;
+    }
+
+    public Caregiver getCaregiver() {
+        return caregiver;
+    }
+
+    public Patient getPatient() {
+        return patient;
+    }
+
+    public ReadConsistency getReadConsistency() {
+        return readConsistency;
+    }
+
+    public boolean isLoggedIn() {
+        return caregiver != null || patient != null;
+    }
+
+    public void login(Caregiver caregiver) {
+        this.caregiver = caregiver;
+        this.patient = null;
+    }
+
+    public void login(Patient patient) {
+        this.patient = patient;
+        this.caregiver = null;
+    }
+
+    public void logout() {
+        this.caregiver = null;
+        this.patient = null;
+    }
+
+    public void print(String message) {
+        out.print(message);
+        out.flush();
+    }
+
+    public void println() {
+        out.println();
+    }
+
+    public void println(String message) {
+        out.println(message);
+    }
+
+    public void flush() {
+        out.flush();
+    }
+}
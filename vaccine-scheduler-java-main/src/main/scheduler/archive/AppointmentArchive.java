@@ -0,0 +1,188 @@
+package scheduler.archive;
+
+import scheduler.db.ReadConsistency;
+import scheduler.model.Appointment;
+import scheduler.storage.Storage;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * Cold storage for past appointments, so the live appointments in storage only hold upcoming and recent ones.
+ *
+ * Archiving moves every appointment before a cutoff date into one {@link ArchiveFile} per month in the directory
+ * given by the ArchiveDir environment variable ("archive" by default). A month is written to its file before its
+ * appointments are deleted from storage, so a failure in between leaves them in both places and the next run simply
+ * archives them again; appointments that are in a partition already are not duplicated. Appointments cancelled
+ * while being archived are taken out of the partition again.
+ *
+ * Archived appointments are no longer shown by show_appointments and can no longer be cancelled; show_history reads
+ * them from the partitions through a memory map.
+ */
+public class AppointmentArchive {
+
+    private static final AppointmentArchive instance = new AppointmentArchive();
+
+    // the earliest date an appointment can have
+    private static final LocalDate FIRST_DATE = LocalDate.of(1, 1, 1);
+
+    // partitions are named after their month, e.g. appointments-2021-06.bin
+    private static final String PREFIX = "appointments-";
+    private static final String SUFFIX = ".bin";
+
+    private final Path directory = Path.of(System.getenv("ArchiveDir") != null ? System.getenv("ArchiveDir") :
+            "archive");
+
+    private AppointmentArchive() {
+    }
+
+    public static AppointmentArchive getInstance() {
+        return instance;
+    }
+
+    /**
+     * Moves every appointment before the cutoff date from storage into the archive, one month at a time. Returns
+     * the number of appointments archived.
+     */
+    public synchronized int archive(LocalDate cutoff) throws SQLException, IOException {
+        Files.createDirectories(directory);
+        // a replica may still have appointments archived before, which would then be taken out of the archive again
+        ReadConsistency previous = ReadConsistency.bind(ReadConsistency.primary());
+        try {
+            return archiveBefore(cutoff);
+        } finally {
+            ReadConsistency.bind(previous);
+        }
+    }
+
+    private int archiveBefore(LocalDate cutoff) throws SQLException, IOException {
+        LocalDate last = cutoff.minusDays(1);
+        // the months are found first, so nothing is deleted while storage is still being read
+        SortedSet<YearMonth> months = new TreeSet<>();
+        Storage.getInstance().getAppointments().forEachBetween(FIRST_DATE, last,
+                appointment -> months.add(partitionOf(appointment)));
+        int archived = 0;
+        for (YearMonth month : months) {
+            List<Appointment> appointments = new ArrayList<>();
+            LocalDate end = month.atEndOfMonth().isBefore(last) ? month.atEndOfMonth() : last;
+            Storage.getInstance().getAppointments().forEachBetween(month.atDay(1), end, appointments::add);
+            if (!appointments.isEmpty()) {
+                archived += archiveMonth(month, appointments);
+            }
+        }
+        return archived;
+    }
+
+    /**
+     * Passes the archived appointments of the caregiver from the first to the last date (inclusive) to the consumer in
+     * date and id order. Only the partitions of those months are read.
+     */
+    public void forEachOfCaregiver(String caregiver, LocalDate first, LocalDate last, Consumer<Appointment> consumer)
+            throws IOException {
+        forEachOf(caregiver, true, first, last, consumer);
+    }
+
+    public void forEachOfPatient(String patient, LocalDate first, LocalDate last, Consumer<Appointment> consumer)
+            throws IOException {
+        forEachOf(patient, false, first, last, consumer);
+    }
+
+    // a patient and a caregiver may share a username, so only the column of the user's role is matched
+    private void forEachOf(String username, boolean caregiver, LocalDate first, LocalDate last,
+                           Consumer<Appointment> consumer) throws IOException {
+        for (YearMonth month : partitions(YearMonth.from(first), YearMonth.from(last))) {
+            ArchiveFile.forEach(partition(month), username, caregiver, appointment -> {
+                if (!appointment.getTime().isBefore(first) && !appointment.getTime().isAfter(last)) {
+                    consumer.accept(appointment);
+                }
+            });
+        }
+    }
+
+    // the months from the first to the last that have a partition, in order
+    private SortedSet<YearMonth> partitions(YearMonth first, YearMonth last) throws IOException {
+        SortedSet<YearMonth> months = new TreeSet<>();
+        if (!Files.isDirectory(directory)) {
+            return months;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    YearMonth month = YearMonth.parse(name.substring(PREFIX.length(), name.length() -
+                            SUFFIX.length()));
+                    if (!month.isBefore(first) && !month.isAfter(last)) {
+                        months.add(month);
+                    }
+                } catch (DateTimeParseException e) {
+                    // not a partition
+                }
+            }
+        }
+        return months;
+    }
+
+    // writes the month into its partition, then deletes it from storage
+    private int archiveMonth(YearMonth month, List<Appointment> appointments) throws SQLException, IOException {
+        Path file = partition(month);
+        // merged by id with what is archived already, e.g. by an earlier run that did not get to delete
+        Map<Integer, Appointment> merged = new LinkedHashMap<>();
+        if (Files.exists(file)) {
+            for (Appointment appointment : ArchiveFile.readAll(file)) {
+                merged.put(appointment.getAppointmentId(), appointment);
+            }
+        }
+        for (Appointment appointment : appointments) {
+            merged.put(appointment.getAppointmentId(), appointment);
+        }
+        ArchiveFile.write(file, sorted(merged.values()));
+
+        List<Integer> ids = new ArrayList<>(appointments.size());
+        for (Appointment appointment : appointments) {
+            ids.add(appointment.getAppointmentId());
+        }
+        boolean[] deleted = Storage.getInstance().getAppointments().deleteArchived(ids);
+        int archived = 0;
+        for (int i = 0; i < deleted.length; i++) {
+            if (deleted[i]) {
+                archived++;
+            } else {
+                // cancelled after it was read, so it must not show up in the history either
+                merged.remove(ids.get(i));
+            }
+        }
+        if (archived < deleted.length) {
+            ArchiveFile.write(file, sorted(merged.values()));
+        }
+        return archived;
+    }
+
+    private static List<Appointment> sorted(Iterable<Appointment> appointments) {
+        List<Appointment> sorted = new ArrayList<>();
+        appointments.forEach(sorted::add);
+        sorted.sort(Comparator.comparing(Appointment::getTime).thenComparingInt(Appointment::getAppointmentId));
+        return sorted;
+    }
+
+    private static YearMonth partitionOf(Appointment appointment) {
+        return YearMonth.from(appointment.getTime());
+    }
+
+    private Path partition(YearMonth month) {
+        return directory.resolve(PREFIX + month + SUFFIX);
+    }
+}
@@ -0,0 +1,141 @@
+package scheduler.archive;
+
+import scheduler.model.Appointment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * One partition of the archive: the archived appointments of one month in a compact binary file.
+ *
+ * Usernames and vaccine names are stored once in a dictionary at the start of the file, and every appointment is a
+ * fixed-width record of five ints (id, epoch day, caregiver, patient and vaccine, the last three as dictionary
+ * positions) in date and id order. That is a fraction of the size of the same rows in the database, and because the
+ * records are fixed-width the file is read through a memory map without parsing anything but the dictionary.
+ *
+ * <pre>
+ *     int magic, int version, int words, words x (short length, UTF-8 bytes), int records, records x 5 ints
+ * </pre>
+ */
+class ArchiveFile {
+
+    private static final int MAGIC = 0x41505054;
+    private static final int VERSION = 1;
+    private static final int RECORD_BYTES = 5 * Integer.BYTES;
+
+    private ArchiveFile() {
+    }
+
+    /**
+     * Writes the appointments, which must be in date and id order, as the partition file. The file is written next
+     * to the partition and moved over it once it is on disk, so a partition is never left half-written.
+     */
+    static void write(Path file, List<Appointment> appointments) throws IOException {
+        Map<String, Integer> positions = new HashMap<>();
+        List<byte[]> words = new ArrayList<>();
+        int[] records = new int[appointments.size() * 5];
+        int size = 3 * Integer.BYTES + Integer.BYTES;
+        for (int i = 0; i < appointments.size(); i++) {
+            Appointment appointment = appointments.get(i);
+            records[i * 5] = appointment.getAppointmentId();
+            records[i * 5 + 1] = (int) appointment.getTime().toEpochDay();
+            String[] names = {appointment.getCaregiver(), appointment.getPatient(), appointment.getVaccineName()};
+            for (int n = 0; n < names.length; n++) {
+                Integer position = positions.get(names[n]);
+                if (position == null) {
+                    byte[] bytes = names[n].getBytes(StandardCharsets.UTF_8);
+                    position = words.size();
+                    positions.put(names[n], position);
+                    words.add(bytes);
+                    size += Short.BYTES + bytes.length;
+                }
+                records[i * 5 + 2 + n] = position;
+            }
+        }
+        size += records.length * Integer.BYTES;
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(words.size());
+        for (byte[] word : words) {
+            buffer.putShort((short) word.length).put(word);
+        }
+        buffer.putInt(appointments.size());
+        buffer.asIntBuffer().put(records);
+        buffer.position(buffer.limit());
+        buffer.flip();
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // every appointment in the partition in date and id order
+    static List<Appointment> readAll(Path file) throws IOException {
+        List<Appointment> appointments = new ArrayList<>();
+        forEach(file, null, false, appointments::add);
+        return appointments;
+    }
+
+    /**
+     * Passes the appointments of the user in the partition to the consumer in date and id order, or every appointment
+     * if the user is null. Only the caregiver column is compared if the user is a caregiver, only the patient column
+     * otherwise, since a patient and a caregiver may have the same username. Records of other users are skipped by
+     * comparing dictionary positions, without decoding them.
+     */
+    static void forEach(Path file, String username, boolean caregiverUser, Consumer<Appointment> consumer)
+            throws IOException {
+        MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (map.getInt() != MAGIC || map.getInt() != VERSION) {
+            throw new IOException("Not an appointment archive: " + file);
+        }
+        String[] words = new String[map.getInt()];
+        int user = -1;
+        for (int i = 0; i < words.length; i++) {
+            byte[] bytes = new byte[map.getShort()];
+            map.get(bytes);
+            words[i] = new String(bytes, StandardCharsets.UTF_8);
+            if (words[i].equals(username)) {
+                user = i;
+            }
+        }
+        // the user has no appointments in this partition
+        if (username != null && user < 0) {
+            return;
+        }
+        int count = map.getInt();
+        int start = map.position();
+        for (int i = 0; i < count; i++) {
+            int offset = start + i * RECORD_BYTES;
+            int caregiver = map.getInt(offset + 2 * Integer.BYTES);
+            int patient = map.getInt(offset + 3 * Integer.BYTES);
+            if (username != null && (caregiverUser ? caregiver : patient) != user) {
+                continue;
+            }
+            consumer.accept(new Appointment(map.getInt(offset), LocalDate.ofEpochDay(map.getInt(offset + 4)),
+                    words[caregiver], words[patient], words[map.getInt(offset + 4 * Integer.BYTES)]));
+        }
+    }
+}
@@ -1,41 +1,316 @@
 package scheduler.db;
 
+import scheduler.metrics.Metrics;
+import scheduler.util.Util;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * A bounded pool of connections to the scheduler database.
+ *
+ * Connections are opened once, kept warm and handed out as {@link PooledConnection} leases that go back to the
+ * pool when closed, so callers should always lease inside a try-with-resources block:
+ *
+ * <pre>
+ *     try (PooledConnection pc = ConnectionManager.getInstance().lease()) {
+ *         Connection con = pc.getConnection();
+ *         ...
+ *     }
+ * </pre>
+ *
+ * The pool size and timeouts are read from the environment next to the connection settings:
+ * PoolMinSize, PoolMaxSize, PoolIdleTimeout (seconds) and PoolBorrowTimeout (milliseconds). StatementCacheSize is
+ * the number of prepared statements every connection keeps (see {@link PooledConnection#prepare(String)}).
+ *
+ * ReplicaUrls lists JDBC URLs of read replicas, separated by commas, each of which gets a pool of the same size.
+ * Reads that may see slightly older data lease through {@link #leaseForRead()}, which hands out a connection of a
+ * healthy replica round-robin; everything else, and every read of a session within ReplicaMaxLag milliseconds after
+ * it wrote (see {@link ReadConsistency}), goes to the primary. Replicas that lag further behind than that are not read
+ * from (see {@link ReplicaSet}), so ReplicaMaxLag should be a few seconds. Reads that must see everything the primary
+ * committed lease through {@link #leaseForPrimaryRead()}, which does not count as a write of the session.
+ */
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
-            ".database.windows.net:1433;database=" + System.getenv("DBName");
+    private static final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+
+    // idle connections are re-validated on borrow when they have not been used for this long
+    private static final long VALIDATION_INTERVAL_MILLIS = 5_000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    // a lease may use this many statements at once, so smaller caches would close statements still in use
+    private static final int MIN_STATEMENT_CACHE_SIZE = 8;
+
+    private static ConnectionManager instance = null;
+
+    private final String name;
+    private final String connectionUrl;
     private final String userName = System.getenv("UserID");
     private final String userPass = System.getenv("Password");
 
-    private Connection con = null;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+    private final int statementCacheSize;
+    private final long replicaMaxLagNanos;
+    // empty unless this is the primary and replicas are configured
+    private final ReplicaSet replicas;
 
-    public ConnectionManager() {
+    // idle connections, most recently returned first so that the least used ones age out
+    private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    // one permit per connection that may be leased at the same time
+    private final Semaphore permits;
+    private final AtomicInteger openCount = new AtomicInteger();
+    private final ScheduledExecutorService maintenance;
+    private volatile boolean closed = false;
+
+    private ConnectionManager(String name, String connectionUrl, List<String> replicaUrls) {
+        this.name = name;
+        this.connectionUrl = connectionUrl;
         try {
             Class.forName(driverName);
         } catch (ClassNotFoundException e) {
             System.out.println(e.toString());
         }
+        this.maxSize = Math.max(1, Util.readSetting("PoolMaxSize", 10));
+        this.minSize = Math.min(maxSize, Math.max(0, Util.readSetting("PoolMinSize", 2)));
+        this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(Util.readSetting("PoolIdleTimeout", 300));
+        this.borrowTimeoutMillis = Util.readSetting("PoolBorrowTimeout", 5_000);
+        this.statementCacheSize = Math.max(MIN_STATEMENT_CACHE_SIZE, Util.readSetting("StatementCacheSize", 32));
+        this.permits = new Semaphore(maxSize, true);
+        this.replicaMaxLagNanos = TimeUnit.MILLISECONDS.toNanos(Util.readSetting("ReplicaMaxLag", 5_000));
+        List<ConnectionManager> replicaPools = new ArrayList<>();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            replicaPools.add(new ConnectionManager("replica-" + (i + 1), replicaUrls.get(i), List.of()));
+        }
+        this.replicas = new ReplicaSet(replicaPools, TimeUnit.NANOSECONDS.toMillis(replicaMaxLagNanos));
+
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-maintenance-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1_000, idleTimeoutMillis / 2);
+        maintenance.scheduleWithFixedDelay(this::maintain, period, period, TimeUnit.MILLISECONDS);
+        if (!replicas.isEmpty()) {
+            maintenance.scheduleWithFixedDelay(() -> replicas.check(this), ReplicaSet.CHECK_INTERVAL_MILLIS,
+                    ReplicaSet.CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        warmUp();
+    }
+
+    public static synchronized ConnectionManager getInstance() {
+        if (instance == null) {
+            // ConnectionUrl points the scheduler at any other SQL Server, e.g. a local one for benchmarks
+            String connectionUrl = System.getenv("ConnectionUrl") != null ? System.getenv("ConnectionUrl") :
+                    "jdbc:sqlserver://" + System.getenv("Server") + ".database.windows.net:1433;database=" +
+                    System.getenv("DBName");
+            List<String> replicaUrls = new ArrayList<>();
+            String replicas = System.getenv("ReplicaUrls");
+            if (replicas != null) {
+                for (String url : replicas.split(",")) {
+                    if (!url.isBlank()) {
+                        replicaUrls.add(url.trim());
+                    }
+                }
+            }
+            instance = new ConnectionManager("primary", connectionUrl, replicaUrls);
+        }
+        return instance;
+    }
+
+    /**
+     * Borrows a connection from the pool, waiting up to the borrow timeout for one to be returned when all of them
+     * are in use. The lease must be closed to give the connection back.
+     */
+    public PooledConnection lease() throws SQLException {
+        return lease(true);
+    }
+
+    /**
+     * Borrows a connection for reads that may see data a little older than the primary's, from a replica if there
+     * is a healthy one and the session of the current thread has not written within ReplicaMaxLag, and from the
+     * primary otherwise. Must not be used for anything that writes.
+     */
+    public PooledConnection leaseForRead() throws SQLException {
+        if (!replicas.isEmpty() && !ReadConsistency.requiresPrimary(replicaMaxLagNanos)) {
+            PooledConnection pc = replicas.lease();
+            if (pc != null) {
+                return pc;
+            }
+        }
+        return lease(false);
+    }
+
+    /**
+     * Borrows a connection of the primary for reads that must see everything it committed, e.g. whether a username
+     * is taken. Unlike {@link #lease()} it does not count as a write of the session, so the session's other reads may
+     * still go to a replica. Must not be used for anything that writes.
+     */
+    public PooledConnection leaseForPrimaryRead() throws SQLException {
+        return lease(false);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    // leases that may write count as a write of the session once they are closed, replicas are leased without
+    PooledConnection lease(boolean write) throws SQLException {
+        long start = System.nanoTime();
+        boolean error = true;
+        try {
+            PooledConnection pc = borrow(write);
+            error = false;
+            return pc;
+        } finally {
+            // includes opening or validating the connection, which is just as much time not spent on the command
+            Metrics.getInstance().recordConnectionWait(System.nanoTime() - start, error);
+        }
+    }
+
+    private PooledConnection borrow(boolean write) throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool has been shut down");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException("Timed out after " + borrowTimeoutMillis +
+                        " ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a database connection", e);
+        }
+        try {
+            PooledConnection pc;
+            while ((pc = idle.pollFirst()) != null) {
+                if (validate(pc)) {
+                    pc.markLeased(write);
+                    return pc;
+                }
+                discard(pc);
+            }
+            pc = open();
+            pc.markLeased(write);
+            return pc;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes every idle connection and stops handing out new ones. Leased connections are closed as they come back.
+     */
+    public void shutdown() {
+        closed = true;
+        maintenance.shutdownNow();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            discard(pc);
+        }
+        replicas.shutdown();
+    }
+
+    // called by PooledConnection.close()
+    void release(PooledConnection pc) {
+        if (pc.isWrite()) {
+            ReadConsistency.recordWriteOfCurrent();
+        }
+        try {
+            if (closed || !reset(pc)) {
+                discard(pc);
+            } else {
+                pc.markIdle();
+                idle.offerFirst(pc);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection con = DriverManager.getConnection(connectionUrl, userName, userPass);
+        openCount.incrementAndGet();
+        return new PooledConnection(this, con, statementCacheSize);
     }
 
-    public Connection createConnection() {
+    private void discard(PooledConnection pc) {
+        openCount.decrementAndGet();
         try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
+            pc.getConnection().close();
         } catch (SQLException e) {
-            e.printStackTrace();
+            // the connection is being thrown away anyway
         }
-        return con;
     }
 
-    public void closeConnection() {
+    private boolean validate(PooledConnection pc) {
+        if (System.currentTimeMillis() - pc.getLastUsed() < VALIDATION_INTERVAL_MILLIS) {
+            return true;
+        }
         try {
-            this.con.close();
+            return pc.getConnection().isValid(VALIDATION_TIMEOUT_SECONDS);
         } catch (SQLException e) {
-            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // puts a returned connection back into the state a new lease expects, returns false if it is unusable
+    private boolean reset(PooledConnection pc) {
+        Connection con = pc.getConnection();
+        try {
+            if (con.isClosed()) {
+                return false;
+            }
+            if (!con.getAutoCommit()) {
+                con.rollback();
+                con.setAutoCommit(true);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void warmUp() {
+        for (int i = openCount.get(); i < minSize; i++) {
+            try {
+                PooledConnection pc = open();
+                pc.markIdle();
+                idle.offerLast(pc);
+            } catch (SQLException e) {
+                System.out.println("Could not open a database connection to the " + name + ": " +
+                        e.getMessage());
+                return;
+            }
+        }
+    }
+
+    // evicts connections that sat idle for too long, then tops the pool back up to its minimum size
+    private void maintain() {
+        long now = System.currentTimeMillis();
+        for (PooledConnection pc : idle) {
+            if (openCount.get() <= minSize) {
+                break;
+            }
+            if (now - pc.getLastUsed() >= idleTimeoutMillis && idle.remove(pc)) {
+                discard(pc);
+            }
+        }
+        if (!closed) {
+            warmUp();
         }
     }
 }
@@ -0,0 +1,64 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Wraps a prepared statement so that every execution is reported to {@link Metrics} as a database round trip of the
+ * command running on the current thread, with its duration and whether it failed. Every other call goes straight to
+ * the statement.
+ */
+class InstrumentedStatement implements InvocationHandler {
+
+    private final PreparedStatement statement;
+
+    private InstrumentedStatement(PreparedStatement statement) {
+        this.statement = statement;
+    }
+
+    static PreparedStatement wrap(PreparedStatement statement) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new InstrumentedStatement(statement));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        // execute, executeQuery, executeUpdate, executeBatch and their large variants
+        if (!method.getName().startsWith("execute")) {
+            return call(method, args);
+        }
+        long start = System.nanoTime();
+        boolean error = false;
+        try {
+            return call(method, args);
+        } catch (Throwable t) {
+            // a duplicate key is how an insert finds out a row is taken, not something going wrong
+            error = !isConstraintViolation(t);
+            throw t;
+        } finally {
+            Metrics.getInstance().recordRoundTrip(System.nanoTime() - start, error);
+        }
+    }
+
+    private static boolean isConstraintViolation(Throwable t) {
+        if (!(t instanceof SQLException)) {
+            return false;
+        }
+        String state = ((SQLException) t).getSQLState();
+        return state != null && state.startsWith("23");
+    }
+
+    private Object call(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(statement, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
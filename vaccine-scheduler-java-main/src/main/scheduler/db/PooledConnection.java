@@ -0,0 +1,97 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A connection borrowed from the {@link ConnectionManager}. Closing the lease hands the connection back to the pool
+ * instead of closing it, so the underlying connection must not be closed or kept after the lease is closed.
+ *
+ * Every connection keeps the statements prepared on it through {@link #prepare(String)}, so each SQL text is parsed
+ * and planned once per connection and then reused by every lease that gets the same connection.
+ */
+public class PooledConnection implements AutoCloseable {
+    private final ConnectionManager pool;
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements;
+    private volatile long lastUsed;
+    private boolean leased;
+    // whether closing the lease counts as a write of the session, see ReadConsistency
+    private boolean write;
+
+    PooledConnection(ConnectionManager pool, Connection connection, int statementCacheSize) {
+        this.pool = pool;
+        this.connection = connection;
+        this.lastUsed = System.currentTimeMillis();
+        // in access order, so the eldest entry is the least recently used statement
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= statementCacheSize) {
+                    return false;
+                }
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns the statement for the SQL text prepared on this connection, preparing it only the first time, with no
+     * parameters or batch left over from its last use. The statement belongs to the connection: it must not be
+     * closed and must not be used after the lease is closed. Its result sets should still be closed.
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement != null && !statement.isClosed()) {
+            statement.clearParameters();
+            statement.clearBatch();
+            return statement;
+        }
+        statement = InstrumentedStatement.wrap(connection.prepareStatement(sql));
+        statements.put(sql, statement);
+        return statement;
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    void markLeased(boolean write) {
+        leased = true;
+        this.write = write;
+    }
+
+    boolean isWrite() {
+        return write;
+    }
+
+    void markIdle() {
+        leased = false;
+        lastUsed = System.currentTimeMillis();
+    }
+
+    @Override
+    public void close() {
+        // closing twice must not give the same connection back to the pool twice
+        if (leased) {
+            leased = false;
+            pool.release(this);
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // the statement is evicted anyway, the driver frees it with the connection at the latest
+        }
+    }
+}
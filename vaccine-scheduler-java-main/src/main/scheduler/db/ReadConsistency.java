@@ -0,0 +1,73 @@
+package scheduler.db;
+
+/**
+ * What a session has written recently, so its reads can be kept on the primary until the replicas have caught up.
+ *
+ * Every session has one, and it is bound to the thread running the session's command for as long as the command
+ * runs. Closing a {@link ConnectionManager#lease()} counts as a write of the bound session, because that is where
+ * everything that writes goes, while the primary's read-only leases do not; {@link ConnectionManager#leaseForRead()}
+ * then reads from the primary for ReplicaMaxLag milliseconds after it, and replicas lagging further behind are not
+ * read from, so the session always sees its own writes. Reads on a thread without a bound session, e.g. logins of the
+ * benchmarks, may go to any replica.
+ */
+public class ReadConsistency {
+
+    private static final ThreadLocal<ReadConsistency> current = new ThreadLocal<>();
+
+    // reads while this is bound always go to the primary
+    private static final ReadConsistency PRIMARY = new ReadConsistency();
+
+    // when the session last wrote, only meaningful once it wrote at all
+    private volatile long lastWriteNanos;
+    private volatile boolean wrote = false;
+
+    /**
+     * Reads bound to the returned consistency always go to the primary, for work that must not act on a replica's
+     * possibly older copy, e.g. deleting what it read.
+     */
+    public static ReadConsistency primary() {
+        return PRIMARY;
+    }
+
+    /**
+     * Binds the consistency to the current thread and returns the one bound before, to be bound again once done.
+     */
+    public static ReadConsistency bind(ReadConsistency consistency) {
+        ReadConsistency previous = current.get();
+        if (consistency == null) {
+            current.remove();
+        } else {
+            current.set(consistency);
+        }
+        return previous;
+    }
+
+    /**
+     * Counts as a write of this session even though it did not write itself, e.g. when the waitlist booked an
+     * appointment for the patient.
+     */
+    public void recordWrite() {
+        lastWriteNanos = System.nanoTime();
+        wrote = true;
+    }
+
+    // called when a lease of the primary that may have written is closed
+    static void recordWriteOfCurrent() {
+        ReadConsistency consistency = current.get();
+        if (consistency != null && consistency != PRIMARY) {
+            consistency.recordWrite();
+        }
+    }
+
+    // whether reads on the current thread must go to the primary, given how far the replicas may lag behind
+    static boolean requiresPrimary(long maxLagNanos) {
+        ReadConsistency consistency = current.get();
+        if (consistency == null) {
+            return false;
+        }
+        if (consistency == PRIMARY) {
+            return true;
+        }
+        return consistency.wrote && System.nanoTime() - consistency.lastWriteNanos < maxLagNanos;
+    }
+}
@@ -0,0 +1,156 @@
+package scheduler.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The read replicas of the database, each with its own pool, handed out round-robin among the healthy ones.
+ *
+ * A replica is unhealthy after it could not be connected to or failed a health check, and is skipped until a later
+ * check, which the primary's maintenance thread runs every second, finds it working again. Replicas that are
+ * merely busy (every connection leased) are skipped for that one read but stay healthy.
+ *
+ * Every check also measures how far each replica lags behind: the primary writes its current time into the
+ * ReplicaHeartbeat row and the replica's copy of the row tells which of those writes it has got to. A replica that
+ * could fall ReplicaMaxLag behind before the next check is lagging and skipped just like an unhealthy one, so a
+ * session that stopped reading from the primary ReplicaMaxLag after its last write always finds that write on
+ * whichever replica it reads from. Both times are the primary's, so the replicas' clocks do not matter.
+ */
+class ReplicaSet {
+
+    // how often every replica is checked
+    static final long CHECK_INTERVAL_MILLIS = 1_000;
+    private static final int CHECK_TIMEOUT_SECONDS = 2;
+
+    private static final String WRITE_HEARTBEAT =
+            "UPDATE ReplicaHeartbeat SET Beat = SYSUTCDATETIME() OUTPUT inserted.Beat WHERE Id = 1";
+    private static final String READ_HEARTBEAT = "SELECT Beat FROM ReplicaHeartbeat WHERE Id = 1";
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final long maxLagMillis;
+
+    ReplicaSet(List<ConnectionManager> pools, long maxLagMillis) {
+        this.maxLagMillis = maxLagMillis;
+        for (ConnectionManager pool : pools) {
+            replicas.add(new Replica(pool));
+        }
+    }
+
+    boolean isEmpty() {
+        return replicas.isEmpty();
+    }
+
+    /**
+     * Leases a connection of the next healthy replica, trying every replica at most once. Returns null if none of
+     * them could hand one out, so the read has to go to the primary.
+     */
+    PooledConnection lease() {
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (!replica.healthy || replica.lagging) {
+                continue;
+            }
+            try {
+                return replica.pool.lease(false);
+            } catch (SQLTransientConnectionException e) {
+                // busy, not broken
+            } catch (SQLException e) {
+                markUnhealthy(replica, e);
+            }
+        }
+        return null;
+    }
+
+    // checks every replica, so unhealthy ones come back, broken ones are found before a read runs into them and
+    // lagging ones are out of rotation until they have caught up
+    void check(ConnectionManager primary) {
+        Timestamp beat = writeHeartbeat(primary);
+        for (Replica replica : replicas) {
+            try (PooledConnection pc = replica.pool.lease(false)) {
+                Timestamp replicated = readHeartbeat(pc);
+                if (!replica.healthy) {
+                    System.out.println("Replica " + replica.pool.getName() + " is healthy again");
+                    replica.healthy = true;
+                }
+                // without a heartbeat of the primary nothing was written since the last one, so it cannot fall behind
+                if (beat != null) {
+                    checkLag(replica, beat.getTime() - replicated.getTime());
+                }
+            } catch (SQLTransientConnectionException e) {
+                // every connection is in use, so it is working
+            } catch (SQLException e) {
+                markUnhealthy(replica, e);
+            }
+        }
+    }
+
+    void shutdown() {
+        for (Replica replica : replicas) {
+            replica.pool.shutdown();
+        }
+    }
+
+    // the time written into the heartbeat row, null if the primary could not be written to
+    private static Timestamp writeHeartbeat(ConnectionManager primary) {
+        try (PooledConnection pc = primary.lease(false)) {
+            PreparedStatement statement = pc.prepare(WRITE_HEARTBEAT);
+            statement.setQueryTimeout(CHECK_TIMEOUT_SECONDS);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getTimestamp("Beat") : null;
+            }
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    private static Timestamp readHeartbeat(PooledConnection pc) throws SQLException {
+        PreparedStatement statement = pc.prepare(READ_HEARTBEAT);
+        statement.setQueryTimeout(CHECK_TIMEOUT_SECONDS);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            if (!resultSet.next()) {
+                throw new SQLException("Replica has no heartbeat");
+            }
+            return resultSet.getTimestamp("Beat");
+        }
+    }
+
+    // the replica has every write up to its heartbeat, so it lags at most the time since, and may lag a check
+    // interval more by the next check
+    private void checkLag(Replica replica, long lagMillis) {
+        boolean lagging = lagMillis + CHECK_INTERVAL_MILLIS >= maxLagMillis;
+        if (lagging && !replica.lagging) {
+            System.out.println("Replica " + replica.pool.getName() + " is " + lagMillis + " ms behind, reading " +
+                    "from the others");
+        } else if (!lagging && replica.lagging) {
+            System.out.println("Replica " + replica.pool.getName() + " has caught up again");
+        }
+        replica.lagging = lagging;
+    }
+
+    private static void markUnhealthy(Replica replica, SQLException e) {
+        if (replica.healthy) {
+            System.out.println("Replica " + replica.pool.getName() + " is unhealthy, reading from the others: " +
+                    e.getMessage());
+            replica.healthy = false;
+        }
+    }
+
+    private static class Replica {
+        private final ConnectionManager pool;
+        private volatile boolean healthy = true;
+        // until the first check has measured it, a replica counts as lagging
+        private volatile boolean lagging = true;
+
+        private Replica(ConnectionManager pool) {
+            this.pool = pool;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+import scheduler.util.Util;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a unit of work against the database again when it failed for a reason that goes away by itself, such as
+ * being picked as a deadlock victim.
+ *
+ * Only errors after which SQL Server has rolled back everything the work did are retried, so a unit of work that is
+ * one transaction (or one batch with XACT_ABORT ON) can simply run again from the start: deadlock victims (1205),
+ * lock timeouts (1222), snapshot update conflicts (3960) and a busy or reconfiguring Azure SQL database (40501, 40613,
+ * 49918-49920). Anything else is thrown right away, in particular a connection lost while a commit may have gone
+ * through, and timeouts waiting for a pooled connection, which already waited as long as a command should.
+ *
+ * Between attempts the work waits for a random time up to an exponentially growing limit (full jitter), so
+ * transactions that deadlocked on each other do not meet again at once. Retries are also limited overall: every
+ * unit of work that succeeds without retrying earns a tenth of a retry, up to 100 retries, and every retry spends
+ * one. When the database is overloaded rather than briefly contended, work then fails fast instead of
+ * multiplying the load. Every retry is recorded in the {@link Metrics} of the running command.
+ *
+ * The number of attempts is read from RetryMaxAttempts (default 5) and the first backoff from RetryBaseDelay
+ * (milliseconds, default 10).
+ */
+public class TransientRetry {
+
+    private static final Set<Integer> TRANSIENT_ERRORS = Set.of(1205, 1222, 3960, 40501, 40613, 49918, 49919, 49920);
+
+    // the longest a single backoff waits
+    private static final long MAX_DELAY_MILLIS = 1_000;
+    // retries are counted in tenths, so a success that earns a tenth of a retry stays an integer
+    private static final long RETRY_COST = 10;
+    private static final long RETRY_BUDGET_MAX = 100 * RETRY_COST;
+
+    private static final int maxAttempts = Math.max(1, Util.readSetting("RetryMaxAttempts", 5));
+    private static final long baseDelayMillis = Math.max(1, Util.readSetting("RetryBaseDelay", 10));
+
+    // starts full, so a burst of deadlocks right after startup is still retried
+    private static final AtomicLong budget = new AtomicLong(RETRY_BUDGET_MAX);
+
+    private TransientRetry() {
+    }
+
+    /**
+     * Runs the work, and runs it again from the start after a transient error as long as attempts and the retry
+     * budget last. The work must leave nothing behind when it fails, e.g. by leasing its own connection and
+     * running one transaction on it.
+     */
+    public static <T> T run(Work<T> work) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                T result = work.run();
+                if (attempt == 1) {
+                    earn();
+                }
+                return result;
+            } catch (SQLException e) {
+                if (!isTransient(e) || attempt >= maxAttempts || !spend()) {
+                    throw e;
+                }
+                Metrics.getInstance().recordRetry();
+                backOff(attempt);
+            }
+        }
+    }
+
+    // whether SQL Server rolled back everything and the same work may well succeed when it runs again
+    static boolean isTransient(SQLException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException && TRANSIENT_ERRORS.contains(((SQLException) cause).getErrorCode())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void earn() {
+        budget.getAndUpdate(tokens -> Math.min(RETRY_BUDGET_MAX, tokens + 1));
+    }
+
+    private static boolean spend() {
+        return budget.getAndUpdate(tokens -> tokens >= RETRY_COST ? tokens - RETRY_COST : tokens) >= RETRY_COST;
+    }
+
+    private static void backOff(int attempt) throws SQLException {
+        long limit = Math.min(MAX_DELAY_MILLIS, baseDelayMillis << Math.min(attempt - 1, 20));
+        try {
+            TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextLong(limit + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting to retry", e);
+        }
+    }
+
+    // a unit of work against the database that can run again from the start
+    public interface Work<T> {
+        T run() throws SQLException;
+    }
+}
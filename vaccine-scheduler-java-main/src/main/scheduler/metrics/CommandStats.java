@@ -0,0 +1,91 @@
+package scheduler.metrics;
+
+/**
+ * What has been recorded for one command so far. Durations are in microseconds.
+ */
+public class CommandStats {
+    private final long count;
+    private final long failed;
+    private final long errors;
+    private final double p50Micros;
+    private final double p99Micros;
+    private final double p999Micros;
+    private final double maxMicros;
+    private final long roundTrips;
+    private final double databaseMicros;
+    private final double connectionWaitMicros;
+    private final double connectionWaitP99Micros;
+    private final long retries;
+
+    CommandStats(long count, long failed, long errors, double p50Micros, double p99Micros, double p999Micros,
+                 double maxMicros, long roundTrips, double databaseMicros, double connectionWaitMicros,
+                 double connectionWaitP99Micros, long retries) {
+        this.count = count;
+        this.failed = failed;
+        this.errors = errors;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maxMicros = maxMicros;
+        this.roundTrips = roundTrips;
+        this.databaseMicros = databaseMicros;
+        this.connectionWaitMicros = connectionWaitMicros;
+        this.connectionWaitP99Micros = connectionWaitP99Micros;
+        this.retries = retries;
+    }
+
+    // how often the command ran
+    public long getCount() {
+        return count;
+    }
+
+    // runs that told the user the command failed, including errors
+    public long getFailed() {
+        return failed;
+    }
+
+    // runs during which storage or the command itself threw
+    public long getErrors() {
+        return errors;
+    }
+
+    public double getP50Micros() {
+        return p50Micros;
+    }
+
+    public double getP99Micros() {
+        return p99Micros;
+    }
+
+    public double getP999Micros() {
+        return p999Micros;
+    }
+
+    public double getMaxMicros() {
+        return maxMicros;
+    }
+
+    // statements sent to the database over all runs
+    public long getRoundTrips() {
+        return roundTrips;
+    }
+
+    // time spent waiting for the database over all runs
+    public double getDatabaseMicros() {
+        return databaseMicros;
+    }
+
+    // time spent waiting for a pooled connection over all runs
+    public double getConnectionWaitMicros() {
+        return connectionWaitMicros;
+    }
+
+    public double getConnectionWaitP99Micros() {
+        return connectionWaitP99Micros;
+    }
+
+    // units of work run again after a transient database error, e.g. a deadlock, over all runs
+    public long getRetries() {
+        return retries;
+    }
+}
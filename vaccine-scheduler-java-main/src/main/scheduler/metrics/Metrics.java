@@ -0,0 +1,159 @@
+package scheduler.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency, failures, database round trips, connection waits and retries of every command.
+ *
+ * A command is measured from {@link #begin(String)} to {@link #end(Context, boolean)} on the thread that runs it.
+ * Everything the storage layer reports on that thread in between, i.e. every JDBC execution and every wait for a
+ * pooled connection, is added to that command. Recording only touches counters and lock-free histograms, so it is
+ * cheap enough to stay on in production.
+ */
+public class Metrics implements SchedulerMetricsMXBean {
+
+    private static final Metrics instance = new Metrics();
+
+    private final ConcurrentHashMap<String, CommandMetrics> commands = new ConcurrentHashMap<>();
+    private final ThreadLocal<Context> current = new ThreadLocal<>();
+
+    private Metrics() {
+    }
+
+    public static Metrics getInstance() {
+        return instance;
+    }
+
+    // makes the metrics readable over JMX, e.g. with jconsole
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("scheduler:type=Metrics"));
+        } catch (InstanceAlreadyExistsException e) {
+            // registered by an earlier start in the same process
+        } catch (JMException e) {
+            System.out.println("Could not register the metrics MBean: " + e.getMessage());
+        }
+    }
+
+    // starts measuring a command on the current thread, the returned context has to be passed to end()
+    public Context begin(String command) {
+        Context context = new Context(command, current.get());
+        current.set(context);
+        return context;
+    }
+
+    public void end(Context context, boolean failed) {
+        long nanos = System.nanoTime() - context.start;
+        current.set(context.outer);
+        CommandMetrics metrics = commands.computeIfAbsent(context.command, c -> new CommandMetrics());
+        metrics.latency.record(nanos);
+        if (failed || context.error) {
+            metrics.failed.increment();
+        }
+        if (context.error) {
+            metrics.errors.increment();
+        }
+        metrics.roundTrips.add(context.roundTrips);
+        metrics.databaseNanos.add(context.databaseNanos);
+        metrics.connectionWait.record(context.connectionWaitNanos);
+        metrics.retries.add(context.retries);
+    }
+
+    // a statement the current command sent to the database, and whether it threw
+    public void recordRoundTrip(long nanos, boolean error) {
+        Context context = current.get();
+        if (context != null) {
+            context.roundTrips++;
+            context.databaseNanos += nanos;
+            context.error |= error;
+        }
+    }
+
+    // time the current command waited for a pooled connection, and whether it got none
+    public void recordConnectionWait(long nanos, boolean error) {
+        Context context = current.get();
+        if (context != null) {
+            context.connectionWaitNanos += nanos;
+            context.error |= error;
+        }
+    }
+
+    // the current command runs a unit of work again after a transient database error
+    public void recordRetry() {
+        Context context = current.get();
+        if (context != null) {
+            context.retries++;
+        }
+    }
+
+    // something the current command could not handle, e.g. an unexpected exception
+    public void recordError() {
+        Context context = current.get();
+        if (context != null) {
+            context.error = true;
+        }
+    }
+
+    @Override
+    public SortedMap<String, CommandStats> getCommands() {
+        SortedMap<String, CommandStats> stats = new TreeMap<>();
+        for (Map.Entry<String, CommandMetrics> entry : commands.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().toStats());
+        }
+        return stats;
+    }
+
+    @Override
+    public void reset() {
+        commands.clear();
+    }
+
+    /**
+     * The command running on a thread. Only that thread touches it, so its counters are plain fields.
+     */
+    public static class Context {
+        private final String command;
+        private final Context outer;
+        private final long start = System.nanoTime();
+        private int roundTrips;
+        private long databaseNanos;
+        private long connectionWaitNanos;
+        private int retries;
+        private boolean error;
+
+        private Context(String command, Context outer) {
+            this.command = command;
+            this.outer = outer;
+        }
+    }
+
+    private static class CommandMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram connectionWait = new LatencyHistogram();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder roundTrips = new LongAdder();
+        private final LongAdder databaseNanos = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+
+        private CommandStats toStats() {
+            return new CommandStats(latency.getCount(), failed.sum(), errors.sum(),
+                    micros(latency.percentile(0.50)), micros(latency.percentile(0.99)),
+                    micros(latency.percentile(0.999)), micros(latency.getMax()), roundTrips.sum(),
+                    micros(databaseNanos.sum()), micros(connectionWait.getTotal()),
+                    micros(connectionWait.percentile(0.99)), retries.sum());
+        }
+
+        private static double micros(long nanos) {
+            return nanos / 1_000.0;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package scheduler.metrics;
+
+import java.util.Map;
+
+/**
+ * The command metrics as seen over JMX, registered as scheduler:type=Metrics.
+ */
+public interface SchedulerMetricsMXBean {
+
+    // every command that ran so far by name
+    Map<String, CommandStats> getCommands();
+
+    // forgets everything recorded so far
+    void reset();
+}
@@ -0,0 +1,40 @@
+package scheduler.model;
+
+import java.time.LocalDate;
+
+public class Appointment {
+    private final int appointmentId;
+    private final LocalDate time;
+    private final String caregiver;
+    private final String patient;
+    private final String vaccineName;
+
+    public Appointment(int appointmentId, LocalDate time, String caregiver, String patient, String vaccineName) {
+        this.appointmentId = appointmentId;
+        this.time = time;
+        this.caregiver = caregiver;
+        this.patient = patient;
+        this.vaccineName = vaccineName;
+    }
+
+    // Getters
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public LocalDate getTime() {
+        return time;
+    }
+
+    public String getCaregiver() {
+        return caregiver;
+    }
+
+    public String getPatient() {
+        return patient;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+}
@@ -1,10 +1,20 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
-import scheduler.util.Util;
-
-import java.sql.*;
-import java.util.Arrays;
+import scheduler.storage.AvailabilityIndex;
+import scheduler.storage.ChangeSet;
+import scheduler.storage.Credentials;
+import scheduler.storage.Storage;
+import scheduler.storage.UsernameRegistry;
+import scheduler.storage.Waitlist;
+import scheduler.util.PasswordHasher;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class Caregiver {
     private final String username;
@@ -37,38 +47,42 @@ public class Caregiver {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        boolean added = Storage.getInstance().getAccounts().addCaregiver(this.username, this.salt, this.hash);
+        // taken either way now
+        UsernameRegistry.getInstance().addCaregiver(this.username);
+        if (!added) {
+            throw new SQLIntegrityConstraintViolationException("Username taken");
+        }
+    }
+
+    // publishes how many appointments the caregiver takes on the date, returns false if it already had as many
+    public boolean uploadAvailability(Date d, int capacity) throws SQLException {
+        ChangeSet.AvailabilityChange added =
+                Storage.getInstance().getAvailabilities().add(this.username, d.toLocalDate(), capacity);
+        if (added == null) {
+            return false;
         }
+        AvailabilityIndex.getInstance().update(added);
+        Waitlist.getInstance().availabilityAdded(d.toLocalDate());
+        return true;
     }
 
-    public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, this.username);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+    // publishes the capacity on all the dates in one transaction, skipping dates that already had as many slots,
+    // and returns how many dates got new slots
+    public int uploadAvailabilities(List<Date> dates, int capacity) throws SQLException {
+        List<LocalDate> days = new ArrayList<>(dates.size());
+        for (Date d : dates) {
+            days.add(d.toLocalDate());
+        }
+        List<ChangeSet.AvailabilityChange> added =
+                Storage.getInstance().getAvailabilities().addAll(this.username, days, capacity);
+        for (ChangeSet.AvailabilityChange day : added) {
+            AvailabilityIndex.getInstance().update(day);
+        }
+        if (!added.isEmpty()) {
+            Waitlist.getInstance().availabilitiesAdded(Collections.min(days), Collections.max(days));
         }
+        return added.size();
     }
 
     public static class CaregiverBuilder {
@@ -99,35 +113,20 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
-                    }
-                }
+            Credentials credentials = Storage.getInstance().getAccounts().findCaregiver(this.username);
+            // the credentials are read first, so no connection is held while the slow hashing runs
+            if (credentials == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            byte[] salt = credentials.getSalt();
+            byte[] hash = credentials.getHash();
+            // check if the password matches
+            if (!PasswordHasher.verify(password, salt, hash)) {
+                return null;
+            }
+            this.salt = salt;
+            this.hash = hash;
+            return new Caregiver(this);
         }
     }
 }
@@ -1,10 +1,12 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
-import scheduler.util.Util;
+import scheduler.storage.Credentials;
+import scheduler.storage.Storage;
+import scheduler.storage.UsernameRegistry;
+import scheduler.util.PasswordHasher;
 
-import java.sql.*;
-import java.util.Arrays;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
 
 public class Patient {
     private final String username;
@@ -37,20 +39,11 @@ public class Patient {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addPatient = "INSERT INTO Patients VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        boolean added = Storage.getInstance().getAccounts().addPatient(this.username, this.salt, this.hash);
+        // taken either way now
+        UsernameRegistry.getInstance().addPatient(this.username);
+        if (!added) {
+            throw new SQLIntegrityConstraintViolationException("Username taken");
         }
     }
 
@@ -82,35 +75,20 @@ public class Patient {
         }
 
         public Patient get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
-                    }
-                }
+            Credentials credentials = Storage.getInstance().getAccounts().findPatient(this.username);
+            // the credentials are read first, so no connection is held while the slow hashing runs
+            if (credentials == null) {
+                return null;
+            }
+            byte[] salt = credentials.getSalt();
+            byte[] hash = credentials.getHash();
+            // check if the password matches
+            if (!PasswordHasher.verify(password, salt, hash)) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            this.salt = salt;
+            this.hash = hash;
+            return new Patient(this);
         }
     }
 }
@@ -0,0 +1,42 @@
+package scheduler.model;
+
+import java.time.LocalDate;
+
+public class WaitlistEntry {
+    private final int waitlistId;
+    private final String patient;
+    private final String vaccineName;
+    private final LocalDate from;
+    private final LocalDate until;
+
+    public WaitlistEntry(int waitlistId, String patient, String vaccineName, LocalDate from, LocalDate until) {
+        this.waitlistId = waitlistId;
+        this.patient = patient;
+        this.vaccineName = vaccineName;
+        this.from = from;
+        this.until = until;
+    }
+
+    // Getters
+    public int getWaitlistId() {
+        return waitlistId;
+    }
+
+    public String getPatient() {
+        return patient;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    // the first date the patient can come in
+    public LocalDate getFrom() {
+        return from;
+    }
+
+    // the last date the patient can come in, inclusive
+    public LocalDate getUntil() {
+        return until;
+    }
+}
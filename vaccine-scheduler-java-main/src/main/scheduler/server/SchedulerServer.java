@@ -0,0 +1,60 @@
+package scheduler.server;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Serves the scheduler's command protocol over TCP: every line a client sends is run as a command and the output is
+ * written back, exactly like the console. Any line-based client works, e.g. {@code nc localhost 5000}.
+ *
+ * Each connection gets its own {@link Session} and runs on its own virtual thread. A session blocked on the database
+ * or the network parks its virtual thread instead of holding a platform thread, so the number of sessions is bounded
+ * by the connection pool rather than by threads.
+ */
+public class SchedulerServer {
+
+    public static final int DEFAULT_PORT = 5000;
+
+    private final int port;
+
+    public SchedulerServer(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Accepts connections until the server socket fails or the thread is interrupted.
+     */
+    public void serve() throws IOException {
+        ThreadFactory sessionThreads = Thread.ofVirtual().name("session-", 1).factory();
+        try (ServerSocket serverSocket = new ServerSocket(port);
+             ExecutorService sessions = Executors.newThreadPerTaskExecutor(sessionThreads)) {
+            System.out.println("Scheduler listening on port " + serverSocket.getLocalPort());
+            while (!Thread.currentThread().isInterrupted()) {
+                Socket socket = serverSocket.accept();
+                sessions.execute(() -> handle(socket));
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(socket.getOutputStream(), false, StandardCharsets.UTF_8)) {
+            Scheduler.serve(new Session(out), in);
+        } catch (IOException e) {
+            // the client went away, nothing left to clean up but the socket
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package scheduler.storage;
+
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+/**
+ * Patients and caregivers with their credentials.
+ */
+public interface AccountRepository {
+
+    // adds the patient unless the username is taken, returns whether it was added
+    boolean addPatient(String username, byte[] salt, byte[] hash) throws SQLException;
+
+    boolean addCaregiver(String username, byte[] salt, byte[] hash) throws SQLException;
+
+    // the credentials of the patient, or null if there is no such patient
+    Credentials findPatient(String username) throws SQLException;
+
+    Credentials findCaregiver(String username) throws SQLException;
+
+    boolean patientExists(String username) throws SQLException;
+
+    boolean caregiverExists(String username) throws SQLException;
+
+    // passes every patient username to the consumer, e.g. to load the username registry
+    void forEachPatient(Consumer<String> consumer) throws SQLException;
+
+    void forEachCaregiver(Consumer<String> consumer) throws SQLException;
+}
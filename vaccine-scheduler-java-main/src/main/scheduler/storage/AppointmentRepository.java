@@ -0,0 +1,57 @@
+package scheduler.storage;
+
+import scheduler.model.Appointment;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Appointments, together with the availability and dose every appointment takes.
+ */
+public interface AppointmentRepository {
+
+    /**
+     * Claims a caregiver available on the date, takes one dose of the vaccine and books the appointment as one
+     * transaction. The candidate caregiver is tried first if it is not null; if it is no longer available the first
+     * available caregiver by username is claimed instead. A booked reservation carries the caregiver's free slots and
+     * the vaccine's doses it left, with the version storage wrote them at.
+     */
+    Reservation reserve(LocalDate date, String vaccineName, String patient, String candidate) throws SQLException;
+
+    /**
+     * Deletes the appointment and gives its caregiver availability and dose back as one transaction, but only if it is
+     * the patient's or the caregiver's, whichever is not null. Returns the cancelled appointment, none if there is no
+     * such appointment, with the free slots and doses it left.
+     */
+    Cancellation cancel(int appointmentId, String patient, String caregiver) throws SQLException;
+
+    /**
+     * Cancels every appointment with one of the ids like {@link #cancel}, all in one transaction. Ids without such an
+     * appointment are left out.
+     */
+    Cancellation cancelAll(List<Integer> appointmentIds, String patient, String caregiver) throws SQLException;
+
+    /**
+     * Cancels every appointment on the date like {@link #cancel}, only those of the caregiver if it is not null, all
+     * in one transaction.
+     */
+    Cancellation cancelOn(LocalDate date, String caregiver) throws SQLException;
+
+    // passes at most limit appointments of the caregiver with an id above afterId to the consumer in id order
+    void forEachOfCaregiver(String caregiver, int afterId, int limit, Consumer<Appointment> consumer)
+            throws SQLException;
+
+    void forEachOfPatient(String patient, int afterId, int limit, Consumer<Appointment> consumer) throws SQLException;
+
+    // passes every appointment from the first to the last date (inclusive) to the consumer ordered by date and id,
+    // streaming them so any number of appointments can be read
+    void forEachBetween(LocalDate first, LocalDate last, Consumer<Appointment> consumer) throws SQLException;
+
+    /**
+     * Deletes appointments that were archived in one transaction, without giving their availability or dose back.
+     * Returns, in the order of the ids, whether each one was deleted; not if it was cancelled in the meantime.
+     */
+    boolean[] deleteArchived(List<Integer> appointmentIds) throws SQLException;
+}
@@ -0,0 +1,142 @@
+package scheduler.storage;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory copy of the availabilities in storage: for every date, the caregivers with a free slot on it in username
+ * order, each with how many slots are free.
+ *
+ * The index is loaded once at startup and then kept up to date by the code that writes availabilities (uploads,
+ * reservations and cancellations), always after the write to storage succeeded, and by the {@link ChangeFeed} for
+ * what other schedulers sharing the storage write. Both set the free slots storage has after the change together with
+ * the version it was written at, and a change older than the one a caregiver's day already has is skipped, so the
+ * feed bringing back a write of this scheduler, or concurrent writes finishing out of order, never count anything
+ * twice. Until it has been loaded, lookups go to storage.
+ */
+public class AvailabilityIndex {
+
+    private static final AvailabilityIndex instance = new AvailabilityIndex();
+
+    // caregivers are only in here while they have a free slot, so lookups never skip booked-out caregivers
+    private final ConcurrentSkipListMap<LocalDate, ConcurrentSkipListMap<String, Integer>> slotsByDate =
+            new ConcurrentSkipListMap<>();
+    // the version of every caregiver's day, booked out or not; updating it also sets the slots, so both change
+    // together
+    private final ConcurrentHashMap<LocalDate, ConcurrentHashMap<String, Long>> versions = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+
+    private AvailabilityIndex() {
+    }
+
+    public static AvailabilityIndex getInstance() {
+        return instance;
+    }
+
+    // loaded as older than every change, so whatever is written while it loads wins
+    public void load() throws SQLException {
+        reload(0);
+    }
+
+    /**
+     * Replaces the contents with what storage holds now, day by day, so lookups never see an empty index in
+     * between. Everything read counts as written at the version, which must be taken before reading; days that
+     * changed since keep their newer slots. Used when the change feed fell too far behind to catch up.
+     */
+    void reload(long version) throws SQLException {
+        Map<LocalDate, Set<String>> stored = new HashMap<>();
+        Storage.getInstance().getAvailabilities().forEach((date, caregiver, capacity, booked) -> {
+            update(new ChangeSet.AvailabilityChange(date, caregiver, capacity - booked, version));
+            stored.computeIfAbsent(date, d -> new HashSet<>()).add(caregiver);
+        });
+        for (Map.Entry<LocalDate, ConcurrentHashMap<String, Long>> date : versions.entrySet()) {
+            Set<String> caregivers = stored.getOrDefault(date.getKey(), Set.of());
+            for (String caregiver : date.getValue().keySet()) {
+                if (!caregivers.contains(caregiver)) {
+                    update(new ChangeSet.AvailabilityChange(date.getKey(), caregiver, 0, version));
+                }
+            }
+        }
+        loaded = true;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Sets the free slots of the caregiver on the date to what storage had at the change's version, unless the day
+     * already has a newer version. Returns how many slots it had before, or -1 if the change was older and skipped.
+     */
+    public int update(ChangeSet.AvailabilityChange change) {
+        // empty dates are kept, a later upload for the same date will just reuse the map
+        ConcurrentSkipListMap<String, Integer> caregivers =
+                slotsByDate.computeIfAbsent(change.getDate(), d -> new ConcurrentSkipListMap<>());
+        int[] before = {-1};
+        versions.computeIfAbsent(change.getDate(), d -> new ConcurrentHashMap<>())
+                .compute(change.getCaregiver(), (caregiver, applied) -> {
+                    if (applied != null && applied > change.getVersion()) {
+                        return applied;
+                    }
+                    Integer slots = change.getSlots() > 0 ? caregivers.put(caregiver, change.getSlots()) :
+                            caregivers.remove(caregiver);
+                    before[0] = slots == null ? 0 : slots;
+                    return change.getVersion();
+                });
+        return before[0];
+    }
+
+    // caregivers with a free slot on the given date ordered by username, read from storage until the index is loaded
+    public NavigableSet<String> getCaregivers(LocalDate date) throws SQLException {
+        if (!loaded) {
+            return Storage.getInstance().getAvailabilities().findCaregivers(date);
+        }
+        ConcurrentSkipListMap<String, Integer> slots = slotsByDate.get(date);
+        if (slots == null) {
+            return Collections.emptyNavigableSet();
+        }
+        return Collections.unmodifiableNavigableSet(slots.keySet());
+    }
+
+    // the caregiver a reservation on the given date should go to, or null if nobody has a free slot
+    public String firstCaregiver(LocalDate date) {
+        ConcurrentSkipListMap<String, Integer> slots = slotsByDate.get(date);
+        if (slots == null) {
+            return null;
+        }
+        // unlike firstKey(), ceilingKey() returns null instead of throwing when another thread took the last slot
+        return slots.ceilingKey("");
+    }
+
+    // the first date from the first to the last date (inclusive) any caregiver has a free slot on, or null if none,
+    // read from storage until the index is loaded
+    public LocalDate firstDate(LocalDate first, LocalDate last) throws SQLException {
+        if (!loaded) {
+            return Storage.getInstance().getAvailabilities().findFirstDate(first, last);
+        }
+        // dates whose slots were all booked stay in the map, so the ceiling may have to skip a few of them
+        LocalDate date = slotsByDate.ceilingKey(first);
+        while (date != null && !date.isAfter(last)) {
+            if (!slotsByDate.get(date).isEmpty()) {
+                return date;
+            }
+            date = slotsByDate.higherKey(date);
+        }
+        return null;
+    }
+
+    // the free slots of every caregiver on every date from the first to the last date (inclusive), as a live view in
+    // date and username order
+    NavigableMap<LocalDate, NavigableMap<String, Integer>> between(LocalDate first, LocalDate last) {
+        return Collections.unmodifiableNavigableMap(slotsByDate.subMap(first, true, last, true));
+    }
+}
@@ -0,0 +1,42 @@
+package scheduler.storage;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.NavigableSet;
+
+/**
+ * The dates caregivers are available on, each with how many appointments the caregiver takes on it (its capacity)
+ * and how many of them are booked. Reservations and cancellations only count slots, a date stays once uploaded.
+ */
+public interface AvailabilityRepository {
+
+    /**
+     * Publishes the caregiver's capacity on the date: a new date gets that many slots, a date that was uploaded with
+     * a smaller capacity is raised to it. Returns the free slots the date has now, or null if it already had as many.
+     */
+    ChangeSet.AvailabilityChange add(String caregiver, LocalDate date, int capacity) throws SQLException;
+
+    // publishes the capacity on all the dates in one transaction like add, returns the free slots of every date that
+    // got any new ones
+    List<ChangeSet.AvailabilityChange> addAll(String caregiver, List<LocalDate> dates, int capacity)
+            throws SQLException;
+
+    // caregivers with a free slot on the given date ordered by username
+    NavigableSet<String> findCaregivers(LocalDate date) throws SQLException;
+
+    // the first date from the first to the last date (inclusive) any caregiver has a free slot on, or null if none
+    LocalDate findFirstDate(LocalDate first, LocalDate last) throws SQLException;
+
+    // passes every availability to the consumer, e.g. to load the availability index
+    void forEach(SlotConsumer consumer) throws SQLException;
+
+    // passes every availability from the first to the last date (inclusive) to the consumer ordered by date and
+    // caregiver, streaming them so any number of availabilities can be read
+    void forEachBetween(LocalDate first, LocalDate last, SlotConsumer consumer) throws SQLException;
+
+    // receives one caregiver's date, with its capacity and how many appointments are booked on it
+    interface SlotConsumer {
+        void accept(LocalDate date, String caregiver, int capacity, int booked);
+    }
+}
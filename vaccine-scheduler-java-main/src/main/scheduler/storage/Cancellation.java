@@ -0,0 +1,28 @@
+package scheduler.storage;
+
+import scheduler.model.Appointment;
+
+import java.util.List;
+
+/**
+ * The outcome of cancelling appointments: the cancelled appointments in id order and the slots and doses storage has
+ * after giving theirs back.
+ */
+public class Cancellation {
+
+    private final List<Appointment> appointments;
+    private final ChangeSet changes;
+
+    public Cancellation(List<Appointment> appointments, ChangeSet changes) {
+        this.appointments = appointments;
+        this.changes = changes;
+    }
+
+    public List<Appointment> getAppointments() {
+        return appointments;
+    }
+
+    public ChangeSet getChanges() {
+        return changes;
+    }
+}
@@ -0,0 +1,128 @@
+package scheduler.storage;
+
+import scheduler.metrics.Metrics;
+import scheduler.util.Util;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link AvailabilityIndex} and {@link VaccineInventory} of this scheduler up to date with what other
+ * schedulers sharing the same storage write.
+ *
+ * A poller thread reads the changes committed since the last version it read from the {@link ChangeFeedRepository}
+ * every ChangeFeedInterval milliseconds (1000 by default) and applies them, so a poll costs as much as the churn
+ * since the last one, not as much as the tables. Every change carries the version it was written at, and the index
+ * and inventory skip changes older than what they already have, including the ones this scheduler made itself and
+ * already applied. New availabilities and doses are passed on to the {@link Waitlist}.
+ *
+ * Availability changes are pruned once they are ChangeFeedRetention minutes old (60 by default). A scheduler that
+ * has not polled for that long, e.g. after a pause of its process, loads everything again instead.
+ */
+public class ChangeFeed {
+
+    private static final ChangeFeed instance = new ChangeFeed();
+
+    // how often old availability changes are pruned, by whichever scheduler gets to it
+    private static final long PRUNE_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final long intervalMillis = Util.readSetting("ChangeFeedInterval", 1_000);
+    private final Duration retention = Duration.ofMinutes(Util.readSetting("ChangeFeedRetention", 60));
+
+    private volatile long version;
+    private boolean started = false;
+
+    private ChangeFeed() {
+    }
+
+    public static ChangeFeed getInstance() {
+        return instance;
+    }
+
+    /**
+     * Remembers where storage is now, before the index and inventory are loaded, so that whatever is written while
+     * they load is read again by the first poll instead of being missed.
+     */
+    public void prepare() throws SQLException {
+        if (Storage.getInstance().getChangeFeed().isShared()) {
+            version = Storage.getInstance().getChangeFeed().currentVersion();
+        }
+    }
+
+    // starts polling, must be called after prepare() and the loads; nothing to poll if no other scheduler can write
+    public synchronized void start() {
+        if (started || intervalMillis <= 0 || !Storage.getInstance().getChangeFeed().isShared()) {
+            return;
+        }
+        Thread poller = new Thread(this::run, "change-feed");
+        poller.setDaemon(true);
+        poller.start();
+        started = true;
+    }
+
+    private void run() {
+        long lastPrune = System.nanoTime();
+        while (true) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                poll();
+                if (System.nanoTime() - lastPrune >= PRUNE_INTERVAL_NANOS) {
+                    lastPrune = System.nanoTime();
+                    Storage.getInstance().getChangeFeed().prune(retention);
+                }
+            } catch (SQLException | RuntimeException e) {
+                // the same changes are read again on the next poll
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void poll() throws SQLException {
+        Metrics.Context context = Metrics.getInstance().begin("change_feed");
+        boolean failed = true;
+        try {
+            ChangeSet changes = Storage.getInstance().getChangeFeed().changesSince(version);
+            if (!changes.isComplete()) {
+                reload();
+            } else {
+                apply(changes);
+                version = changes.getVersion();
+            }
+            failed = false;
+        } finally {
+            Metrics.getInstance().end(context, failed);
+        }
+    }
+
+    private void apply(ChangeSet changes) {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        // in the order they were committed, so the free slots of a caregiver's day end up as the last change left them
+        for (ChangeSet.AvailabilityChange change : changes.getAvailabilities()) {
+            int before = index.update(change);
+            if (before >= 0 && change.getSlots() > before) {
+                Waitlist.getInstance().availabilityAdded(change.getDate());
+            }
+        }
+        for (ChangeSet.DoseChange change : changes.getDoses()) {
+            int before = VaccineInventory.getInstance().update(change);
+            if (before >= 0 && change.getDoses() > before) {
+                Waitlist.getInstance().dosesAdded(change.getVaccineName());
+            }
+        }
+    }
+
+    // the changes since the last poll were pruned already, so everything is loaded again
+    private void reload() throws SQLException {
+        System.out.println("Change feed fell behind, loading availabilities and doses again");
+        long reloadVersion = Storage.getInstance().getChangeFeed().currentVersion();
+        AvailabilityIndex.getInstance().reload(reloadVersion);
+        VaccineInventory.getInstance().reload(reloadVersion);
+        version = reloadVersion;
+        Waitlist.getInstance().everythingChanged();
+    }
+}
@@ -0,0 +1,23 @@
+package scheduler.storage;
+
+import java.sql.SQLException;
+import java.time.Duration;
+
+/**
+ * The changes to availabilities and vaccines in the order storage committed them, read by the {@link ChangeFeed} so
+ * that several schedulers sharing one storage see each other's writes.
+ */
+public interface ChangeFeedRepository {
+
+    // whether other schedulers can write to the same storage at all, the feed is only read if so
+    boolean isShared();
+
+    // the version every change committed from now on is at or after, taken before loading everything
+    long currentVersion() throws SQLException;
+
+    // every committed change at or after the version, or an incomplete change set if some of them were pruned
+    ChangeSet changesSince(long version) throws SQLException;
+
+    // forgets availability changes older than the age, schedulers that have not read them yet reload instead
+    void prune(Duration age) throws SQLException;
+}
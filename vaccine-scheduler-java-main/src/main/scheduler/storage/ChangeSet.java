@@ -0,0 +1,130 @@
+package scheduler.storage;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * What changed in the availabilities and vaccines, each change with the free slots or doses storage has after it and
+ * the version storage wrote it at. Read by the {@link ChangeFeed} since a version of storage, and returned by the
+ * writes of this scheduler for what they changed.
+ *
+ * Availability changes are in the order they were committed. Vaccines are given with their current doses, since only
+ * the latest count matters. If the changes since the version were pruned already, the change set is incomplete and
+ * everything has to be loaded again.
+ */
+public class ChangeSet {
+
+    private static final ChangeSet EMPTY = of(List.of(), List.of());
+
+    private final long version;
+    private final boolean complete;
+    private final List<AvailabilityChange> availabilities;
+    private final List<DoseChange> doses;
+
+    public ChangeSet(long version, boolean complete, List<AvailabilityChange> availabilities, List<DoseChange> doses) {
+        this.version = version;
+        this.complete = complete;
+        this.availabilities = availabilities;
+        this.doses = doses;
+    }
+
+    // what one write changed, which has no version to read further changes from
+    public static ChangeSet of(List<AvailabilityChange> availabilities, List<DoseChange> doses) {
+        return new ChangeSet(0, true, availabilities, doses);
+    }
+
+    public static ChangeSet of(AvailabilityChange availability, DoseChange doses) {
+        return of(List.of(availability), List.of(doses));
+    }
+
+    public static ChangeSet empty() {
+        return EMPTY;
+    }
+
+    // the version to read the next changes from
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public List<AvailabilityChange> getAvailabilities() {
+        return availabilities;
+    }
+
+    public List<DoseChange> getDoses() {
+        return doses;
+    }
+
+    public boolean isEmpty() {
+        return availabilities.isEmpty() && doses.isEmpty();
+    }
+
+    // sets the in-memory copies to the slots and doses of the changes a committed write of this scheduler returned
+    void apply() {
+        for (AvailabilityChange change : availabilities) {
+            AvailabilityIndex.getInstance().update(change);
+        }
+        for (DoseChange change : doses) {
+            VaccineInventory.getInstance().update(change);
+        }
+    }
+
+    // the free slots a caregiver has on a date as of the version, 0 once they are all booked
+    public static class AvailabilityChange {
+        private final LocalDate date;
+        private final String caregiver;
+        private final int slots;
+        private final long version;
+
+        public AvailabilityChange(LocalDate date, String caregiver, int slots, long version) {
+            this.date = date;
+            this.caregiver = caregiver;
+            this.slots = slots;
+            this.version = version;
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+
+        public String getCaregiver() {
+            return caregiver;
+        }
+
+        public int getSlots() {
+            return slots;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+
+    // the doses of a vaccine as of the version
+    public static class DoseChange {
+        private final String vaccineName;
+        private final int doses;
+        private final long version;
+
+        public DoseChange(String vaccineName, int doses, long version) {
+            this.vaccineName = vaccineName;
+            this.doses = doses;
+            this.version = version;
+        }
+
+        public String getVaccineName() {
+            return vaccineName;
+        }
+
+        public int getDoses() {
+            return doses;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+}
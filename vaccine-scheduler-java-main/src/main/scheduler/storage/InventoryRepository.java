@@ -0,0 +1,20 @@
+package scheduler.storage;
+
+import java.sql.SQLException;
+import java.util.SortedMap;
+
+/**
+ * Vaccines and their available doses.
+ */
+public interface InventoryRepository {
+
+    /**
+     * Adds the delta (which may be negative) to the doses of the vaccine as one atomic change, creating the vaccine
+     * if it does not exist yet. Returns the doses the vaccine has now, or null if that would make the count
+     * negative, in which case nothing is changed.
+     */
+    ChangeSet.DoseChange adjust(String vaccineName, int delta) throws SQLException;
+
+    // every vaccine with its doses ordered by name
+    SortedMap<String, Integer> findAll() throws SQLException;
+}
@@ -0,0 +1,150 @@
+package scheduler.storage;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Independent provisioning changes (new patients and caregivers, availabilities and doses) collected and written
+ * together in one transaction by the {@link ProvisioningRepository} of the current {@link Storage}.
+ *
+ * None of the changes depend on each other, so each one succeeds or is skipped on its own: a taken username or an
+ * already uploaded date is reported as not applied instead of failing the whole batch. New users are written before
+ * availabilities, so a batch may hold both a caregiver and that caregiver's availability.
+ */
+public class ProvisioningBatch {
+
+    private final List<Change> changes = new ArrayList<>();
+
+    // adds a new patient, returns the position of the change in the results of execute()
+    public int addPatient(String username, byte[] salt, byte[] hash) {
+        return add(new Change(Kind.PATIENT, username, salt, hash, null, null, 0));
+    }
+
+    public int addCaregiver(String username, byte[] salt, byte[] hash) {
+        return add(new Change(Kind.CAREGIVER, username, salt, hash, null, null, 0));
+    }
+
+    public int addAvailability(String caregiver, LocalDate date) {
+        return add(new Change(Kind.AVAILABILITY, caregiver, null, null, date, null, 0));
+    }
+
+    public int addDoses(String vaccineName, int doses) {
+        return add(new Change(Kind.DOSES, null, null, null, null, vaccineName, doses));
+    }
+
+    public int size() {
+        return changes.size();
+    }
+
+    /**
+     * Writes all changes in one transaction. Returns, in the order the changes were added, whether each one was
+     * applied. Nothing is written if this throws.
+     */
+    public boolean[] execute() throws SQLException {
+        Result result = Storage.getInstance().getProvisioning().apply(changes);
+        boolean[] applied = result.getApplied();
+        // the in-memory copies only change once the transaction committed
+        result.getChanges().apply();
+        for (int i = 0; i < changes.size(); i++) {
+            Change change = changes.get(i);
+            // a user that was not added already existed, so the username is taken either way
+            if (change.kind == Kind.PATIENT) {
+                UsernameRegistry.getInstance().addPatient(change.username);
+            } else if (change.kind == Kind.CAREGIVER) {
+                UsernameRegistry.getInstance().addCaregiver(change.username);
+            }
+            if (!applied[i]) {
+                continue;
+            }
+            if (change.kind == Kind.AVAILABILITY) {
+                Waitlist.getInstance().availabilityAdded(change.date);
+            } else if (change.kind == Kind.DOSES) {
+                Waitlist.getInstance().dosesAdded(change.vaccineName);
+            }
+        }
+        return applied;
+    }
+
+    private int add(Change change) {
+        changes.add(change);
+        return changes.size() - 1;
+    }
+
+    // whether each change was applied, and the free slots and doses storage has after them
+    public static class Result {
+        private final boolean[] applied;
+        private final ChangeSet changes;
+
+        public Result(boolean[] applied, ChangeSet changes) {
+            this.applied = applied;
+            this.changes = changes;
+        }
+
+        public boolean[] getApplied() {
+            return applied;
+        }
+
+        public ChangeSet getChanges() {
+            return changes;
+        }
+    }
+
+    public enum Kind {
+        PATIENT,
+        CAREGIVER,
+        AVAILABILITY,
+        DOSES
+    }
+
+    public static class Change {
+        private final Kind kind;
+        private final String username;
+        private final byte[] salt;
+        private final byte[] hash;
+        private final LocalDate date;
+        private final String vaccineName;
+        private final int doses;
+
+        private Change(Kind kind, String username, byte[] salt, byte[] hash, LocalDate date, String vaccineName,
+                       int doses) {
+            this.kind = kind;
+            this.username = username;
+            this.salt = salt;
+            this.hash = hash;
+            this.date = date;
+            this.vaccineName = vaccineName;
+            this.doses = doses;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        // the new user for PATIENT and CAREGIVER, the caregiver for AVAILABILITY
+        public String getUsername() {
+            return username;
+        }
+
+        public byte[] getSalt() {
+            return salt;
+        }
+
+        public byte[] getHash() {
+            return hash;
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+
+        public String getVaccineName() {
+            return vaccineName;
+        }
+
+        public int getDoses() {
+            return doses;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package scheduler.storage;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Writes the changes of a {@link ProvisioningBatch}.
+ */
+public interface ProvisioningRepository {
+
+    /**
+     * Writes all changes in one transaction. Returns, in the order of the changes, whether each one was applied,
+     * and the free slots and doses storage has after them. Nothing is written if this throws.
+     */
+    ProvisioningBatch.Result apply(List<ProvisioningBatch.Change> changes) throws SQLException;
+}
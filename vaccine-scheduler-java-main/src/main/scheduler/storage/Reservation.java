@@ -0,0 +1,63 @@
+package scheduler.storage;
+
+import java.time.LocalDate;
+
+/**
+ * The outcome of a reservation: the booked appointment, its caregiver and the slots and doses storage has left after
+ * it, or why nothing was booked.
+ */
+public class Reservation {
+
+    public enum Status {
+        BOOKED,
+        NO_CAREGIVER,
+        NOT_ENOUGH_DOSES,
+        // only for waitlist assignments: the entry was already booked or taken off the waitlist
+        NOT_WAITING
+    }
+
+    private final Status status;
+    private final int appointmentId;
+    private final LocalDate date;
+    private final String caregiver;
+    private final ChangeSet changes;
+
+    private Reservation(Status status, int appointmentId, LocalDate date, String caregiver, ChangeSet changes) {
+        this.status = status;
+        this.appointmentId = appointmentId;
+        this.date = date;
+        this.caregiver = caregiver;
+        this.changes = changes;
+    }
+
+    public static Reservation booked(int appointmentId, ChangeSet.AvailabilityChange slots,
+                                     ChangeSet.DoseChange doses) {
+        return new Reservation(Status.BOOKED, appointmentId, slots.getDate(), slots.getCaregiver(),
+                ChangeSet.of(slots, doses));
+    }
+
+    public static Reservation rejected(Status status) {
+        return new Reservation(status, -1, null, null, ChangeSet.empty());
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public String getCaregiver() {
+        return caregiver;
+    }
+
+    // the caregiver's free slots and the vaccine's doses after the reservation, nothing if it was rejected
+    public ChangeSet getChanges() {
+        return changes;
+    }
+}
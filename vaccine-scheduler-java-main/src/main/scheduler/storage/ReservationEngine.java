@@ -0,0 +1,115 @@
+package scheduler.storage;
+
+import scheduler.model.Appointment;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Books and cancels appointments and keeps the in-memory copies in step with them.
+ *
+ * Claiming the caregiver, taking a dose and inserting the appointment all happen in one transaction of the
+ * {@link AppointmentRepository}, so either all three happen or none do, and concurrent reservations never
+ * double-book a caregiver or take doses below zero.
+ *
+ * The caregiver to claim is taken from the {@link AvailabilityIndex} without reading storage first; the repository
+ * only falls back to picking one itself when that caregiver was taken in the meantime. Reservations that the index
+ * or the {@link VaccineInventory} already know cannot succeed are turned down without touching storage, and both are
+ * set to the slots and doses storage returns once the reservation or cancellation committed.
+ */
+public class ReservationEngine {
+
+    // most dates reserveEarliest tries when the earliest ones are booked out by others first
+    private static final int MAX_EARLIEST_ATTEMPTS = 3;
+
+    /**
+     * Reserves the first available caregiver on the given date for the patient and takes one dose of the vaccine.
+     * Nothing is changed unless the whole reservation succeeds.
+     */
+    public Reservation reserve(LocalDate date, String vaccineName, String patient) throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        String candidate = index.firstCaregiver(date);
+        if (candidate == null && index.isLoaded()) {
+            return Reservation.rejected(Reservation.Status.NO_CAREGIVER);
+        }
+        VaccineInventory inventory = VaccineInventory.getInstance();
+        if (inventory.isLoaded() && inventory.getDoses(vaccineName) <= 0) {
+            return Reservation.rejected(Reservation.Status.NOT_ENOUGH_DOSES);
+        }
+        Reservation reservation =
+                Storage.getInstance().getAppointments().reserve(date, vaccineName, patient, candidate);
+        reservation.getChanges().apply();
+        return reservation;
+    }
+
+    /**
+     * Reserves a caregiver on the earliest date from the first to the last date (inclusive) that has one, and takes
+     * one dose of the vaccine. The date is found with a ceiling lookup in the {@link AvailabilityIndex} and booked
+     * like {@link #reserve}; if it was booked out in the meantime, the next date is tried.
+     */
+    public Reservation reserveEarliest(String vaccineName, String patient, LocalDate first, LocalDate last)
+            throws SQLException {
+        VaccineInventory inventory = VaccineInventory.getInstance();
+        if (inventory.isLoaded() && inventory.getDoses(vaccineName) <= 0) {
+            return Reservation.rejected(Reservation.Status.NOT_ENOUGH_DOSES);
+        }
+        LocalDate from = first;
+        for (int attempt = 0; attempt < MAX_EARLIEST_ATTEMPTS && !from.isAfter(last); attempt++) {
+            LocalDate date = AvailabilityIndex.getInstance().firstDate(from, last);
+            if (date == null) {
+                break;
+            }
+            Reservation reservation = reserve(date, vaccineName, patient);
+            if (reservation.getStatus() != Reservation.Status.NO_CAREGIVER) {
+                return reservation;
+            }
+            from = date.plusDays(1);
+        }
+        return Reservation.rejected(Reservation.Status.NO_CAREGIVER);
+    }
+
+    /**
+     * Cancels the appointment and gives its caregiver availability and dose back, to the {@link Waitlist} first if
+     * anyone is waiting for them, but only if it is the patient's or the caregiver's, whichever is not null. Returns
+     * the cancelled appointment, or null if there is no such appointment.
+     */
+    public Appointment cancel(int appointmentId, String patient, String caregiver) throws SQLException {
+        Cancellation cancellation =
+                Storage.getInstance().getAppointments().cancel(appointmentId, patient, caregiver);
+        cancelled(cancellation);
+        return cancellation.getAppointments().isEmpty() ? null : cancellation.getAppointments().get(0);
+    }
+
+    /**
+     * Cancels the appointments with the given ids like {@link #cancel}, in one transaction, but only those of the
+     * patient or of the caregiver, whichever is not null. Returns the cancelled appointments in id order; ids
+     * without such an appointment are left out.
+     */
+    public List<Appointment> cancelAll(List<Integer> appointmentIds, String patient, String caregiver)
+            throws SQLException {
+        Cancellation cancellation =
+                Storage.getInstance().getAppointments().cancelAll(appointmentIds, patient, caregiver);
+        cancelled(cancellation);
+        return cancellation.getAppointments();
+    }
+
+    /**
+     * Cancels every appointment on the date, or only the caregiver's if it is not null, like {@link #cancel}, in one
+     * transaction. Returns the cancelled appointments in id order.
+     */
+    public List<Appointment> cancelOn(LocalDate date, String caregiver) throws SQLException {
+        Cancellation cancellation = Storage.getInstance().getAppointments().cancelOn(date, caregiver);
+        cancelled(cancellation);
+        return cancellation.getAppointments();
+    }
+
+    // brings the in-memory copies in step with cancellations that committed
+    private static void cancelled(Cancellation cancellation) {
+        cancellation.getChanges().apply();
+        // the matcher takes every event that piled up in one round, so these are matched together
+        for (Appointment appointment : cancellation.getAppointments()) {
+            Waitlist.getInstance().appointmentCancelled(appointment);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package scheduler.storage;
+
+import scheduler.storage.memory.MemoryStorage;
+import scheduler.storage.sqlserver.SqlServerStorage;
+
+import java.sql.SQLException;
+
+/**
+ * The repositories the scheduler keeps its data in.
+ *
+ * The backend is picked with the Storage environment variable: "sqlserver" (the default) uses the database
+ * configured for {@link scheduler.db.ConnectionManager} and migrates its schema at startup, "memory" keeps everything
+ * in this process, e.g. for a clinic without a network connection or for test rigs. Data in memory is lost when the
+ * process exits.
+ */
+public class Storage {
+
+    private static Storage instance = null;
+
+    private final AccountRepository accounts;
+    private final AvailabilityRepository availabilities;
+    private final InventoryRepository inventory;
+    private final AppointmentRepository appointments;
+    private final ProvisioningRepository provisioning;
+    private final WaitlistRepository waitlist;
+    private final ChangeFeedRepository changeFeed;
+    private final Startup onStart;
+    private final Runnable onShutdown;
+
+    public Storage(AccountRepository accounts, AvailabilityRepository availabilities, InventoryRepository inventory,
+                   AppointmentRepository appointments, ProvisioningRepository provisioning,
+                   WaitlistRepository waitlist, ChangeFeedRepository changeFeed, Startup onStart,
+                   Runnable onShutdown) {
+        this.accounts = accounts;
+        this.availabilities = availabilities;
+        this.inventory = inventory;
+        this.appointments = appointments;
+        this.provisioning = provisioning;
+        this.waitlist = waitlist;
+        this.changeFeed = changeFeed;
+        this.onStart = onStart;
+        this.onShutdown = onShutdown;
+    }
+
+    public static synchronized Storage getInstance() {
+        if (instance == null) {
+            instance = fromEnvironment();
+        }
+        return instance;
+    }
+
+    // replaces the backend, must be called before anything is read from or written to storage
+    public static synchronized void setInstance(Storage storage) {
+        instance = storage;
+    }
+
+    private static Storage fromEnvironment() {
+        String backend = System.getenv("Storage");
+        if (backend == null || backend.equalsIgnoreCase("sqlserver")) {
+            return SqlServerStorage.create();
+        }
+        if (backend.equalsIgnoreCase("memory")) {
+            return MemoryStorage.create();
+        }
+        throw new IllegalStateException("Unknown storage backend: " + backend);
+    }
+
+    public AccountRepository getAccounts() {
+        return accounts;
+    }
+
+    public AvailabilityRepository getAvailabilities() {
+        return availabilities;
+    }
+
+    public InventoryRepository getInventory() {
+        return inventory;
+    }
+
+    public AppointmentRepository getAppointments() {
+        return appointments;
+    }
+
+    public ProvisioningRepository getProvisioning() {
+        return provisioning;
+    }
+
+    public WaitlistRepository getWaitlist() {
+        return waitlist;
+    }
+
+    public ChangeFeedRepository getChangeFeed() {
+        return changeFeed;
+    }
+
+    // gets the backend ready before anything is read from it, e.g. migrates the schema
+    public void start() throws SQLException {
+        onStart.run();
+    }
+
+    // releases whatever the backend holds on to, e.g. pooled connections
+    public void shutdown() {
+        onShutdown.run();
+    }
+
+    // work a backend does once at startup
+    public interface Startup {
+        void run() throws SQLException;
+    }
+}
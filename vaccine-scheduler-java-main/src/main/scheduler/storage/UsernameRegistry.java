@@ -0,0 +1,74 @@
+package scheduler.storage;
+
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory copy of the usernames of all patients and caregivers, so create_patient and create_caregiver can turn
+ * down taken usernames without asking storage.
+ *
+ * The registry is loaded once at startup and then kept up to date by the code that adds users. Usernames are never
+ * removed, so a username in the registry is certainly taken. A username that is not in it is only probably free: it
+ * may have been added by another scheduler since, which the insert itself finds out. Until the registry has been
+ * loaded, lookups go to storage.
+ */
+public class UsernameRegistry {
+
+    private static final UsernameRegistry instance = new UsernameRegistry();
+
+    private final Set<String> patients = ConcurrentHashMap.newKeySet();
+    private final Set<String> caregivers = ConcurrentHashMap.newKeySet();
+    private volatile boolean loaded = false;
+
+    private UsernameRegistry() {
+    }
+
+    public static UsernameRegistry getInstance() {
+        return instance;
+    }
+
+    public void load() throws SQLException {
+        AccountRepository accounts = Storage.getInstance().getAccounts();
+        accounts.forEachPatient(patients::add);
+        accounts.forEachCaregiver(caregivers::add);
+        loaded = true;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    // true if the patient username is known to be taken, only asks storage until the registry is loaded
+    public boolean isPatientTaken(String username) throws SQLException {
+        if (patients.contains(username)) {
+            return true;
+        }
+        return !loaded && Storage.getInstance().getAccounts().patientExists(username);
+    }
+
+    public boolean isCaregiverTaken(String username) throws SQLException {
+        if (caregivers.contains(username)) {
+            return true;
+        }
+        return !loaded && Storage.getInstance().getAccounts().caregiverExists(username);
+    }
+
+    // only answers from memory, for callers that would rather try the insert than wait for storage
+    public boolean isKnownPatient(String username) {
+        return patients.contains(username);
+    }
+
+    public boolean isKnownCaregiver(String username) {
+        return caregivers.contains(username);
+    }
+
+    // called once storage has the patient, whether it was just added or turned out to be taken
+    public void addPatient(String username) {
+        patients.add(username);
+    }
+
+    public void addCaregiver(String username) {
+        caregivers.add(username);
+    }
+}
@@ -0,0 +1,111 @@
+package scheduler.storage;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dose counts for every vaccine, kept in storage and mirrored in memory.
+ *
+ * Every change is sent to storage as a relative delta that is applied to its own current value, so concurrent
+ * add_doses and reservations never overwrite each other and no change has to read the count first. The in-memory
+ * counts are set to the doses storage has after each change together with the version it was written at, whether
+ * this scheduler made the change or the {@link ChangeFeed} brought it from another one, and a change older than the
+ * count's version is skipped, so no change is ever counted twice.
+ */
+public class VaccineInventory {
+
+    private static final VaccineInventory instance = new VaccineInventory();
+
+    private final ConcurrentHashMap<String, Count> doses = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+
+    private VaccineInventory() {
+    }
+
+    public static VaccineInventory getInstance() {
+        return instance;
+    }
+
+    // loaded as older than every change, so whatever is written while it loads wins
+    public void load() throws SQLException {
+        reload(0);
+    }
+
+    // sets every count to what storage has now as of the version, which must be taken before reading
+    void reload(long version) throws SQLException {
+        for (Map.Entry<String, Integer> vaccine : Storage.getInstance().getInventory().findAll().entrySet()) {
+            update(new ChangeSet.DoseChange(vaccine.getKey(), vaccine.getValue(), version));
+        }
+        loaded = true;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Adds the delta (which may be negative) to the doses of the vaccine as one change in storage, creating the
+     * vaccine if it does not exist yet. Returns the new number of doses.
+     *
+     * @throws IllegalArgumentException if there are not enough doses to take
+     */
+    public int adjust(String vaccineName, int delta) throws SQLException {
+        ChangeSet.DoseChange change = Storage.getInstance().getInventory().adjust(vaccineName, delta);
+        if (change == null) {
+            throw new IllegalArgumentException("Not enough available doses!");
+        }
+        update(change);
+        if (delta > 0) {
+            Waitlist.getInstance().dosesAdded(vaccineName);
+        }
+        return change.getDoses();
+    }
+
+    /**
+     * Sets the in-memory count of the vaccine to the doses storage had at the change's version, unless the count
+     * already has a newer version. Returns the count it had before, or -1 if the change was older and skipped.
+     */
+    int update(ChangeSet.DoseChange change) {
+        int[] before = {-1};
+        doses.compute(change.getVaccineName(), (name, count) -> {
+            if (count != null && count.version > change.getVersion()) {
+                return count;
+            }
+            before[0] = count == null ? 0 : count.doses;
+            return new Count(change.getDoses(), change.getVersion());
+        });
+        return before[0];
+    }
+
+    // the known number of doses of the vaccine, 0 if it does not exist
+    public int getDoses(String vaccineName) {
+        Count count = doses.get(vaccineName);
+        return count == null ? 0 : count.doses;
+    }
+
+    // every vaccine with its doses ordered by name, read from storage until the inventory is loaded
+    public SortedMap<String, Integer> getAllDoses() throws SQLException {
+        if (!loaded) {
+            return Storage.getInstance().getInventory().findAll();
+        }
+        SortedMap<String, Integer> allDoses = new TreeMap<>();
+        for (Map.Entry<String, Count> entry : doses.entrySet()) {
+            allDoses.put(entry.getKey(), entry.getValue().doses);
+        }
+        return allDoses;
+    }
+
+    // the doses of a vaccine and the version they were written at
+    private static class Count {
+        private final int doses;
+        private final long version;
+
+        private Count(int doses, long version) {
+            this.doses = doses;
+            this.version = version;
+        }
+    }
+}
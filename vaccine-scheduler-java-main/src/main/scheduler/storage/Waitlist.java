@@ -0,0 +1,282 @@
+package scheduler.storage;
+
+import scheduler.metrics.Metrics;
+import scheduler.model.Appointment;
+import scheduler.model.WaitlistEntry;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Patients waiting for an appointment between two dates, booked automatically as soon as a caregiver and a dose
+ * become available for them.
+ *
+ * Nothing polls: uploads, cancellations and new doses each emit an event, and a single matcher thread takes all
+ * events that piled up, finds the waiting entries they could serve and assigns slots to them in the order the
+ * entries joined. Slots are picked from the {@link AvailabilityIndex} and {@link VaccineInventory}, and all
+ * assignments of a round are booked together in one transaction of the {@link WaitlistRepository}. An assignment
+ * that lost its slot to a concurrent reservation simply keeps waiting for the next event.
+ *
+ * The waiting entries are mirrored in memory in the order they joined. Entries whose last date has passed are taken
+ * off the waitlist.
+ */
+public class Waitlist {
+
+    private static final Waitlist instance = new Waitlist();
+
+    // most assignments booked in one transaction
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private final ConcurrentSkipListMap<Integer, WaitlistEntry> entries = new ConcurrentSkipListMap<>();
+    private final LinkedBlockingQueue<Event> events = new LinkedBlockingQueue<>();
+    private volatile Consumer<Appointment> listener = appointment -> { };
+    private volatile boolean started = false;
+
+    private Waitlist() {
+    }
+
+    public static Waitlist getInstance() {
+        return instance;
+    }
+
+    /**
+     * Loads the waiting entries and starts matching them. Until then events are ignored, e.g. while the benchmark
+     * seeds storage without a waitlist.
+     */
+    public synchronized void start() throws SQLException {
+        if (started) {
+            return;
+        }
+        Storage.getInstance().getWaitlist().forEach(entry -> entries.put(entry.getWaitlistId(), entry));
+        Thread matcher = new Thread(this::run, "waitlist-matcher");
+        matcher.setDaemon(true);
+        matcher.start();
+        started = true;
+        // slots may have been freed while nobody was matching
+        events.add(Event.EVERYTHING);
+    }
+
+    // called with every appointment the waitlist booked, on the matcher thread
+    public void setListener(Consumer<Appointment> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Puts the patient on the waitlist for one dose of the vaccine on any date from the first to the last date.
+     */
+    public WaitlistEntry join(String patient, String vaccineName, LocalDate from, LocalDate until)
+            throws SQLException {
+        WaitlistEntry entry = Storage.getInstance().getWaitlist().add(patient, vaccineName, from, until);
+        entries.put(entry.getWaitlistId(), entry);
+        // a slot may have been freed between the failed reservation and joining
+        signal(new Event(null, null, vaccineName));
+        return entry;
+    }
+
+    public void availabilityAdded(LocalDate date) {
+        signal(new Event(date, date, null));
+    }
+
+    public void availabilitiesAdded(LocalDate first, LocalDate last) {
+        signal(new Event(first, last, null));
+    }
+
+    public void dosesAdded(String vaccineName) {
+        signal(new Event(null, null, vaccineName));
+    }
+
+    public void appointmentCancelled(Appointment appointment) {
+        signal(new Event(appointment.getTime(), appointment.getTime(), appointment.getVaccineName()));
+    }
+
+    // anything may have changed, e.g. after the availabilities and doses were loaded again
+    void everythingChanged() {
+        signal(Event.EVERYTHING);
+    }
+
+    // the entries of the patient still waiting, in the order they joined
+    public List<WaitlistEntry> getEntries(String patient) {
+        List<WaitlistEntry> waiting = new ArrayList<>();
+        for (WaitlistEntry entry : entries.values()) {
+            if (entry.getPatient().equals(patient)) {
+                waiting.add(entry);
+            }
+        }
+        return waiting;
+    }
+
+    private void signal(Event event) {
+        if (started) {
+            events.add(event);
+        }
+    }
+
+    private void run() {
+        List<Event> round = new ArrayList<>();
+        while (true) {
+            try {
+                round.add(events.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            // everything that happened while the last round ran is matched together
+            events.drainTo(round);
+            try {
+                match(round);
+            } catch (SQLException | RuntimeException e) {
+                // the entries keep waiting and are matched again on the next event
+                e.printStackTrace();
+            }
+            round.clear();
+        }
+    }
+
+    private void match(List<Event> round) throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        VaccineInventory inventory = VaccineInventory.getInstance();
+        if (!index.isLoaded() || !inventory.isLoaded()) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        // what this round already handed out, so no slot or dose goes to two entries
+        Map<String, Integer> dosesLeft = new HashMap<>();
+        Map<String, Integer> claimed = new HashMap<>();
+        List<Assignment> batch = new ArrayList<>();
+        for (WaitlistEntry entry : entries.values()) {
+            if (entry.getUntil().isBefore(today)) {
+                Storage.getInstance().getWaitlist().remove(entry.getWaitlistId());
+                entries.remove(entry.getWaitlistId());
+                continue;
+            }
+            if (!affects(round, entry)) {
+                continue;
+            }
+            int doses = dosesLeft.computeIfAbsent(entry.getVaccineName(), inventory::getDoses);
+            if (doses <= 0) {
+                continue;
+            }
+            Assignment assignment = findSlot(index, entry, today, claimed);
+            if (assignment == null) {
+                continue;
+            }
+            dosesLeft.put(entry.getVaccineName(), doses - 1);
+            batch.add(assignment);
+            if (batch.size() == MAX_BATCH_SIZE) {
+                book(batch);
+                batch.clear();
+            }
+        }
+        book(batch);
+    }
+
+    private static boolean affects(List<Event> round, WaitlistEntry entry) {
+        for (Event event : round) {
+            if (event.affects(entry)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the first caregiver by date and username in the entry's window with a slot this round has not claimed yet
+    private static Assignment findSlot(AvailabilityIndex index, WaitlistEntry entry, LocalDate today,
+                                       Map<String, Integer> claimed) {
+        LocalDate from = entry.getFrom().isBefore(today) ? today : entry.getFrom();
+        for (Map.Entry<LocalDate, NavigableMap<String, Integer>> date :
+                index.between(from, entry.getUntil()).entrySet()) {
+            for (Map.Entry<String, Integer> caregiver : date.getValue().entrySet()) {
+                String slot = date.getKey() + " " + caregiver.getKey();
+                if (claimed.getOrDefault(slot, 0) < caregiver.getValue()) {
+                    claimed.merge(slot, 1, Integer::sum);
+                    return new Assignment(entry, date.getKey(), caregiver.getKey());
+                }
+            }
+        }
+        return null;
+    }
+
+    private void book(List<Assignment> batch) throws SQLException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Metrics.Context context = Metrics.getInstance().begin("waitlist_batch");
+        List<Reservation> reservations = null;
+        try {
+            reservations = Storage.getInstance().getWaitlist().assign(batch);
+        } finally {
+            Metrics.getInstance().end(context, reservations == null);
+        }
+        // the in-memory copies only change once the transaction committed
+        for (int i = 0; i < batch.size(); i++) {
+            Assignment assignment = batch.get(i);
+            WaitlistEntry entry = assignment.getEntry();
+            Reservation reservation = reservations.get(i);
+            if (reservation.getStatus() == Reservation.Status.NOT_WAITING) {
+                entries.remove(entry.getWaitlistId());
+            }
+            if (reservation.getStatus() != Reservation.Status.BOOKED) {
+                continue;
+            }
+            entries.remove(entry.getWaitlistId());
+            reservation.getChanges().apply();
+            listener.accept(new Appointment(reservation.getAppointmentId(), assignment.getDate(),
+                    assignment.getCaregiver(), entry.getPatient(), entry.getVaccineName()));
+        }
+    }
+
+    // a waiting entry together with the slot picked for it
+    public static class Assignment {
+        private final WaitlistEntry entry;
+        private final LocalDate date;
+        private final String caregiver;
+
+        private Assignment(WaitlistEntry entry, LocalDate date, String caregiver) {
+            this.entry = entry;
+            this.date = date;
+            this.caregiver = caregiver;
+        }
+
+        public WaitlistEntry getEntry() {
+            return entry;
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+
+        public String getCaregiver() {
+            return caregiver;
+        }
+    }
+
+    // something that may let waiting entries be booked: caregivers available between two dates, doses of a vaccine
+    // or both; null fields match nothing, and EVERYTHING matches every entry
+    private static class Event {
+        private static final Event EVERYTHING = new Event(LocalDate.MIN, LocalDate.MAX, null);
+
+        private final LocalDate first;
+        private final LocalDate last;
+        private final String vaccineName;
+
+        private Event(LocalDate first, LocalDate last, String vaccineName) {
+            this.first = first;
+            this.last = last;
+            this.vaccineName = vaccineName;
+        }
+
+        private boolean affects(WaitlistEntry entry) {
+            if (entry.getVaccineName().equals(vaccineName)) {
+                return true;
+            }
+            return first != null && !first.isAfter(entry.getUntil()) && !last.isBefore(entry.getFrom());
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package scheduler.storage;
+
+import scheduler.model.WaitlistEntry;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Patients waiting for an appointment, served in the order they joined by the {@link Waitlist}.
+ */
+public interface WaitlistRepository {
+
+    // adds the patient to the end of the waitlist and returns the new entry
+    WaitlistEntry add(String patient, String vaccineName, LocalDate from, LocalDate until) throws SQLException;
+
+    // passes every waiting entry to the consumer in the order they joined
+    void forEach(Consumer<WaitlistEntry> consumer) throws SQLException;
+
+    // takes the entry off the waitlist, returns false if it was not waiting
+    boolean remove(int waitlistId) throws SQLException;
+
+    /**
+     * Books every assignment in one transaction: each one claims exactly its caregiver, takes one dose and takes its
+     * entry off the waitlist, or changes nothing at all. Returns, in the order of the assignments, the outcome of
+     * each one; NOT_WAITING if its entry was no longer on the waitlist.
+     */
+    List<Reservation> assign(List<Waitlist.Assignment> assignments) throws SQLException;
+}
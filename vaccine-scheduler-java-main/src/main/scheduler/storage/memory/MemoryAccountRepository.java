@@ -0,0 +1,88 @@
+package scheduler.storage.memory;
+
+import scheduler.storage.AccountRepository;
+import scheduler.storage.Credentials;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+class MemoryAccountRepository implements AccountRepository {
+
+    private final MemoryTables tables;
+
+    MemoryAccountRepository(MemoryTables tables) {
+        this.tables = tables;
+    }
+
+    @Override
+    public boolean addPatient(String username, byte[] salt, byte[] hash) {
+        return add(tables.patients, username, salt, hash);
+    }
+
+    @Override
+    public boolean addCaregiver(String username, byte[] salt, byte[] hash) {
+        return add(tables.caregivers, username, salt, hash);
+    }
+
+    @Override
+    public Credentials findPatient(String username) {
+        return find(tables.patients, username);
+    }
+
+    @Override
+    public Credentials findCaregiver(String username) {
+        return find(tables.caregivers, username);
+    }
+
+    @Override
+    public boolean patientExists(String username) {
+        return find(tables.patients, username) != null;
+    }
+
+    @Override
+    public boolean caregiverExists(String username) {
+        return find(tables.caregivers, username) != null;
+    }
+
+    @Override
+    public void forEachPatient(Consumer<String> consumer) {
+        forEach(tables.patients, consumer);
+    }
+
+    @Override
+    public void forEachCaregiver(Consumer<String> consumer) {
+        forEach(tables.caregivers, consumer);
+    }
+
+    private boolean add(Map<String, Credentials> users, String username, byte[] salt, byte[] hash) {
+        tables.lock.writeLock().lock();
+        try {
+            return users.putIfAbsent(username, new Credentials(salt.clone(), hash.clone())) == null;
+        } finally {
+            tables.lock.writeLock().unlock();
+        }
+    }
+
+    private Credentials find(Map<String, Credentials> users, String username) {
+        tables.lock.readLock().lock();
+        try {
+            return users.get(username);
+        } finally {
+            tables.lock.readLock().unlock();
+        }
+    }
+
+    // copies the usernames under the lock, the consumer then runs without holding it
+    private void forEach(Map<String, Credentials> users, Consumer<String> consumer) {
+        List<String> usernames;
+        tables.lock.readLock().lock();
+        try {
+            usernames = new ArrayList<>(users.keySet());
+        } finally {
+            tables.lock.readLock().unlock();
+        }
+        usernames.forEach(consumer);
+    }
+}
@@ -0,0 +1,242 @@
+package scheduler.storage.memory;
+
+import scheduler.model.Appointment;
+import scheduler.storage.AppointmentRepository;
+import scheduler.storage.Cancellation;
+import scheduler.storage.ChangeSet;
+import scheduler.storage.Reservation;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+class MemoryAppointmentRepository implements AppointmentRepository {
+
+    // appointments read under one lock by forEachBetween
+    private static final int CHUNK_SIZE = 1_000;
+
+    private final MemoryTables tables;
+
+    MemoryAppointmentRepository(MemoryTables tables) {
+        this.tables = tables;
+    }
+
+    @Override
+    public Reservation reserve(LocalDate date, String vaccineName, String patient, String candidate) {
+        tables.lock.writeLock().lock();
+        try {
+            String caregiver = firstWithFreeSlot(date, candidate);
+            if (caregiver == null) {
+                return Reservation.rejected(Reservation.Status.NO_CAREGIVER);
+            }
+            // checked before anything changes, so a rejected reservation leaves nothing to undo
+            if (tables.adjustDoses(vaccineName, -1) < 0) {
+                return Reservation.rejected(Reservation.Status.NOT_ENOUGH_DOSES);
+            }
+            tables.claimSlot(caregiver, date);
+            int appointmentId = tables.nextAppointmentId++;
+            tables.addAppointment(new Appointment(appointmentId, date, caregiver, patient, vaccineName));
+            return Reservation.booked(appointmentId, tables.slotsChange(caregiver, date),
+                    tables.dosesChange(vaccineName));
+        } finally {
+            tables.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Cancellation cancel(int appointmentId, String patient, String caregiver) {
+        List<Appointment> cancelled = new ArrayList<>();
+        tables.lock.writeLock().lock();
+        try {
+            if (isOf(tables.appointments.get(appointmentId), patient, caregiver)) {
+                cancelled.add(cancelLocked(appointmentId));
+            }
+            return cancellation(cancelled);
+        } finally {
+            tables.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Cancellation cancelAll(List<Integer> appointmentIds, String patient, String caregiver) {
+        List<Appointment> cancelled = new ArrayList<>();
+        tables.lock.writeLock().lock();
+        try {
+            for (int appointmentId : new TreeSet<>(appointmentIds)) {
+                if (isOf(tables.appointments.get(appointmentId), patient, caregiver)) {
+                    cancelled.add(cancelLocked(appointmentId));
+                }
+            }
+            return cancellation(cancelled);
+        } finally {
+            tables.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Cancellation cancelOn(LocalDate date, String caregiver) {
+        List<Appointment> cancelled = new ArrayList<>();
+        tables.lock.writeLock().lock();
+        try {
+            NavigableSet<Integer> ids = tables.appointmentsByTime.get(date);
+            if (ids == null) {
+                return cancellation(cancelled);
+            }
+            // copied, because cancelling removes the ids from the set
+            for (int appointmentId : new ArrayList<>(ids)) {
+                if (caregiver == null || tables.appointments.get(appointmentId).getCaregiver().equals(caregiver)) {
+                    cancelled.add(cancelLocked(appointmentId));
+                }
+            }
+            return cancellation(cancelled);
+        } finally {
+            tables.lock.writeLock().unlock();
+        }
+    }
+
+    // whether the appointment exists and is the patient's or the caregiver's, whichever is not null
+    private static boolean isOf(Appointment appointment, String patient, String caregiver) {
+        return appointment != null && (patient == null || appointment.getPatient().equals(patient)) &&
+                (caregiver == null || appointment.getCaregiver().equals(caregiver));
+    }
+
+    // the candidate if it has a free slot on the date, otherwise the first caregiver by username that has one
+    private String firstWithFreeSlot(LocalDate date, String candidate) {
+        Map<String, MemoryTables.Slots> caregivers = tables.availabilities.get(date);
+        if (caregivers == null) {
+            return null;
+        }
+        if (candidate != null && caregivers.containsKey(candidate) && caregivers.get(candidate).free() > 0) {
+            return candidate;
+        }
+        for (Map.Entry<String, MemoryTables.Slots> caregiver : caregivers.entrySet()) {
+            if (caregiver.getValue().free() > 0) {
+                return caregiver.getKey();
+            }
+        }
+        return null;
+    }
+
+    // the cancelled appointments with the slots and doses they left, must hold the write lock
+    private Cancellation cancellation(List<Appointment> cancelled) {
+        Map<String, ChangeSet.AvailabilityChange> slots = new LinkedHashMap<>();
+        Map<String, ChangeSet.DoseChange> doses = new LinkedHashMap<>();
+        for (Appointment appointment : cancelled) {
+            slots.computeIfAbsent(appointment.getTime() + " " + appointment.getCaregiver(),
+                    slot -> tables.slotsChange(appointment.getCaregiver(), appointment.getTime()));
+            ChangeSet.DoseChange vaccine = tables.dosesChange(appointment.getVaccineName());
+            if (vaccine != null) {
+                doses.putIfAbsent(appointment.getVaccineName(), vaccine);
+            }
+        }
+        return new Cancellation(cancelled,
+                ChangeSet.of(new ArrayList<>(slots.values()), new ArrayList<>(doses.values())));
+    }
+
+    // must hold the write lock
+    private Appointment cancelLocked(int appointmentId) {
+        Appointment appointment = tables.removeAppointment(appointmentId);
+        if (appointment != null) {
+            tables.releaseSlot(appointment.getCaregiver(), appointment.getTime());
+            // like the UPDATE of the SQL Server backend, a vaccine that no longer exists gets nothing back
+            if (tables.vaccines.containsKey(appointment.getVaccineName())) {
+                tables.adjustDoses(appointment.getVaccineName(), 1);
+            }
+        }
+        return appointment;
+    }
+
+    @Override
+    public void forEachOfCaregiver(String caregiver, int afterId, int limit, Consumer<Appointment> consumer) {
+        forEach(page(tables.appointmentsByCaregiver, caregiver, afterId, limit), consumer);
+    }
+
+    @Override
+    public void forEachOfPatient(String patient, int afterId, int limit, Consumer<Appointment> consumer) {
+        forEach(page(tables.appointmentsByPatient, patient, afterId, limit), consumer);
+    }
+
+    @Override
+    public void forEachBetween(LocalDate first, LocalDate last, Consumer<Appointment> consumer) {
+        // read in chunks, each under the lock and continuing after the last appointment of the one before, so
+        // writers are never held up for long and the consumer runs without the lock
+        LocalDate date = first;
+        int afterId = 0;
+        List<Appointment> chunk = new ArrayList<>(CHUNK_SIZE);
+        do {
+            chunk.clear();
+            tables.lock.readLock().lock();
+            try {
+                for (Map.Entry<LocalDate, NavigableSet<Integer>> entry :
+                        tables.appointmentsByTime.subMap(date, true, last, true).entrySet()) {
+                    NavigableSet<Integer> ids = entry.getKey().equals(date) ?
+                            entry.getValue().tailSet(afterId, false) : entry.getValue();
+                    for (int id : ids) {
+                        if (chunk.size() == CHUNK_SIZE) {
+                            break;
+                        }
+                        chunk.add(tables.appointments.get(id));
+                    }
+                    if (chunk.size() == CHUNK_SIZE) {
+                        break;
+                    }
+                }
+            } finally {
+                tables.lock.readLock().unlock();
+            }
+            forEach(chunk, consumer);
+            if (!chunk.isEmpty()) {
+                Appointment lastRead = chunk.get(chunk.size() - 1);
+                date = lastRead.getTime();
+                afterId = lastRead.getAppointmentId();
+            }
+        } while (chunk.size() == CHUNK_SIZE);
+    }
+
+    @Override
+    public boolean[] deleteArchived(List<Integer> appointmentIds) {
+        boolean[] deleted = new boolean[appointmentIds.size()];
+        tables.lock.writeLock().lock();
+        try {
+            for (int i = 0; i < deleted.length; i++) {
+                deleted[i] = tables.removeAppointment(appointmentIds.get(i)) != null;
+            }
+        } finally {
+            tables.lock.writeLock().unlock();
+        }
+        return deleted;
+    }
+
+    // reads the page under the lock, the consumer then runs without holding it
+    private List<Appointment> page(Map<String, NavigableSet<Integer>> idsByUser, String username, int afterId,
+                                   int limit) {
+        List<Appointment> page = new ArrayList<>();
+        tables.lock.readLock().lock();
+        try {
+            NavigableSet<Integer> ids = idsByUser.get(username);
+            if (ids == null) {
+                return page;
+            }
+            for (int id : ids.tailSet(afterId, false)) {
+                if (page.size() == limit) {
+                    break;
+                }
+                page.add(tables.appointments.get(id));
+            }
+        } finally {
+            tables.lock.readLock().unlock();
+        }
+        return page;
+    }
+
+    private static void forEach(List<Appointment> appointments, Consumer<Appointment> consumer) {
+        for (Appointment appointment : appointments) {
+            consumer.accept(appointment);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package scheduler.storage.memory;
+
+import scheduler.storage.AvailabilityRepository;
+import scheduler.storage.ChangeSet;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+class MemoryAvailabilityRepository implements AvailabilityRepository {
+
+    // availabilities read under one lock by forEachBetween
+    private static final int CHUNK_SIZE = 1_000;
+
+    private final MemoryTables tables;
+
+    MemoryAvailabilityRepository(MemoryTables tables) {
+        this.tables = tables;
+    }
+
+    @Override
+    public ChangeSet.AvailabilityChange add(String caregiver, LocalDate date, int capacity) {
+        tables.lock.writeLock().lock();
+        try {
+            return tables.publishAvailability(caregiver, date, capacity) > 0 ? tables.slotsChange(caregiver, date) :
+                    null;
+        } finally {
+            tables.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<ChangeSet.AvailabilityChange> addAll(String caregiver, List<LocalDate> dates, int capacity) {
+        List<ChangeSet.AvailabilityChange> added = new ArrayList<>();
+        tables.lock.writeLock().lock();
+        try {
+            // every date once and in date order, like the SQL Server backend
+            for (LocalDate date : new TreeSet<>(dates)) {
+                if (tables.publishAvailability(caregiver, date, capacity) > 0) {
+                    added.add(tables.slotsChange(caregiver, date));
+                }
+            }
+        } finally {
+            tables.lock.writeLock().unlock();
+        }
+        return added;
+    }
+
+    @Override
+    public NavigableSet<String> findCaregivers(LocalDate date) {
+        NavigableSet<String> caregivers = new TreeSet<>();
+        tables.lock.readLock().lock();
+        try {
+            TreeMap<String, MemoryTables.Slots> slots = tables.availabilities.get(date);
+            if (slots != null) {
+                for (Map.Entry<String, MemoryTables.Slots> caregiver : slots.entrySet()) {
+                    if (caregiver.getValue().free() > 0) {
+                        caregivers.add(caregiver.getKey());
+                    }
+                }
+            }
+        } finally {
+            tables.lock.readLock().unlock();
+        }
+        return caregivers;
+    }
+
+    @Override
+    public LocalDate findFirstDate(LocalDate first, LocalDate last) {
+        tables.lock.readLock().lock();
+        try {
+            for (Map.Entry<LocalDate, TreeMap<String, MemoryTables.Slots>> entry :
+                    tables.availabilities.subMap(first, true, last, true).entrySet()) {
+                for (MemoryTables.Slots slots : entry.getValue().values()) {
+                    if (slots.free() > 0) {
+                        return entry.getKey();
+                    }
+                }
+            }
+            return null;
+        } finally {
+            tables.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEach(SlotConsumer consumer) {
+        tables.lock.readLock().lock();
+        try {
+            for (Map.Entry<LocalDate, TreeMap<String, MemoryTables.Slots>> entry : tables.availabilities.entrySet()) {
+                for (Map.Entry<String, MemoryTables.Slots> caregiver : entry.getValue().entrySet()) {
+                    consumer.accept(entry.getKey(), caregiver.getKey(), caregiver.getValue().capacity,
+                            caregiver.getValue().booked);
+                }
+            }
+        } finally {
+            tables.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEachBetween(LocalDate first, LocalDate last, SlotConsumer consumer) {
+        // read in chunks like the appointments, continuing after the last date and caregiver of the chunk before
+        LocalDate date = first;
+        String afterCaregiver = null;
+        List<LocalDate> dates = new ArrayList<>(CHUNK_SIZE);
+        List<String> caregivers = new ArrayList<>(CHUNK_SIZE);
+        // capacity and booked of every availability in the chunk, copied since the slots change after the lock
+        List<int[]> slots = new ArrayList<>(CHUNK_SIZE);
+        do {
+            dates.clear();
+            caregivers.clear();
+            slots.clear();
+            tables.lock.readLock().lock();
+            try {
+                for (Map.Entry<LocalDate, TreeMap<String, MemoryTables.Slots>> entry :
+                        tables.availabilities.subMap(date, true, last, true).entrySet()) {
+                    Map<String, MemoryTables.Slots> available = entry.getKey().equals(date) && afterCaregiver != null ?
+                            entry.getValue().tailMap(afterCaregiver, false) : entry.getValue();
+                    for (Map.Entry<String, MemoryTables.Slots> caregiver : available.entrySet()) {
+                        if (dates.size() == CHUNK_SIZE) {
+                            break;
+                        }
+                        dates.add(entry.getKey());
+                        caregivers.add(caregiver.getKey());
+                        slots.add(new int[] {caregiver.getValue().capacity, caregiver.getValue().booked});
+                    }
+                    if (dates.size() == CHUNK_SIZE) {
+                        break;
+                    }
+                }
+            } finally {
+                tables.lock.readLock().unlock();
+            }
+            for (int i = 0; i < dates.size(); i++) {
+                consumer.accept(dates.get(i), caregivers.get(i), slots.get(i)[0], slots.get(i)[1]);
+            }
+            if (!dates.isEmpty()) {
+                date = dates.get(dates.size() - 1);
+                afterCaregiver = caregivers.get(caregivers.size() - 1);
+            }
+        } while (dates.size() == CHUNK_SIZE);
+    }
+}
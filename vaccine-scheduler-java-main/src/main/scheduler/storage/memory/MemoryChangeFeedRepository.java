@@ -0,0 +1,30 @@
+package scheduler.storage.memory;
+
+import scheduler.storage.ChangeFeedRepository;
+import scheduler.storage.ChangeSet;
+
+import java.time.Duration;
+import java.util.List;
+
+// storage in memory belongs to one scheduler, which already knows every change it made
+class MemoryChangeFeedRepository implements ChangeFeedRepository {
+
+    @Override
+    public boolean isShared() {
+        return false;
+    }
+
+    @Override
+    public long currentVersion() {
+        return 0;
+    }
+
+    @Override
+    public ChangeSet changesSince(long version) {
+        return new ChangeSet(version, true, List.of(), List.of());
+    }
+
+    @Override
+    public void prune(Duration age) {
+    }
+}
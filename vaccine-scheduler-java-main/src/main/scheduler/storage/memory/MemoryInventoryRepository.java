@@ -0,0 +1,36 @@
+package scheduler.storage.memory;
+
+import scheduler.storage.ChangeSet;
+import scheduler.storage.InventoryRepository;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+class MemoryInventoryRepository implements InventoryRepository {
+
+    private final MemoryTables tables;
+
+    MemoryInventoryRepository(MemoryTables tables) {
+        this.tables = tables;
+    }
+
+    @Override
+    public ChangeSet.DoseChange adjust(String vaccineName, int delta) {
+        tables.lock.writeLock().lock();
+        try {
+            return tables.adjustDoses(vaccineName, delta) < 0 ? null : tables.dosesChange(vaccineName);
+        } finally {
+            tables.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public SortedMap<String, Integer> findAll() {
+        tables.lock.readLock().lock();
+        try {
+            return new TreeMap<>(tables.vaccines);
+        } finally {
+            tables.lock.readLock().unlock();
+        }
+    }
+}
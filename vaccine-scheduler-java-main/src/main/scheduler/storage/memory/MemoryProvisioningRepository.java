@@ -0,0 +1,68 @@
+package scheduler.storage.memory;
+
+import scheduler.storage.ChangeSet;
+import scheduler.storage.Credentials;
+import scheduler.storage.ProvisioningBatch;
+import scheduler.storage.ProvisioningRepository;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+class MemoryProvisioningRepository implements ProvisioningRepository {
+
+    private final MemoryTables tables;
+
+    MemoryProvisioningRepository(MemoryTables tables) {
+        this.tables = tables;
+    }
+
+    @Override
+    public ProvisioningBatch.Result apply(List<ProvisioningBatch.Change> changes) {
+        boolean[] applied = new boolean[changes.size()];
+        Map<String, ChangeSet.AvailabilityChange> availabilities = new LinkedHashMap<>();
+        Map<String, ChangeSet.DoseChange> doses = new LinkedHashMap<>();
+        tables.lock.writeLock().lock();
+        try {
+            // new users go first, so a batch may hold both a caregiver and that caregiver's availability
+            for (ProvisioningBatch.Kind kind : ProvisioningBatch.Kind.values()) {
+                for (int i = 0; i < changes.size(); i++) {
+                    ProvisioningBatch.Change change = changes.get(i);
+                    if (change.getKind() == kind) {
+                        applied[i] = apply(change);
+                    }
+                }
+            }
+            // the slots and doses after every change, once the whole batch is applied
+            for (int i = 0; i < changes.size(); i++) {
+                ProvisioningBatch.Change change = changes.get(i);
+                if (applied[i] && change.getKind() == ProvisioningBatch.Kind.AVAILABILITY) {
+                    availabilities.put(change.getDate() + " " + change.getUsername(),
+                            tables.slotsChange(change.getUsername(), change.getDate()));
+                } else if (applied[i] && change.getKind() == ProvisioningBatch.Kind.DOSES) {
+                    doses.put(change.getVaccineName(), tables.dosesChange(change.getVaccineName()));
+                }
+            }
+        } finally {
+            tables.lock.writeLock().unlock();
+        }
+        return new ProvisioningBatch.Result(applied,
+                ChangeSet.of(new ArrayList<>(availabilities.values()), new ArrayList<>(doses.values())));
+    }
+
+    private boolean apply(ProvisioningBatch.Change change) {
+        switch (change.getKind()) {
+            case PATIENT:
+                return tables.patients.putIfAbsent(change.getUsername(),
+                        new Credentials(change.getSalt().clone(), change.getHash().clone())) == null;
+            case CAREGIVER:
+                return tables.caregivers.putIfAbsent(change.getUsername(),
+                        new Credentials(change.getSalt().clone(), change.getHash().clone())) == null;
+            case AVAILABILITY:
+                return tables.publishAvailability(change.getUsername(), change.getDate(), 1) > 0;
+            default:
+                return tables.adjustDoses(change.getVaccineName(), change.getDoses()) >= 0;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package scheduler.storage.memory;
+
+import scheduler.storage.Storage;
+
+/**
+ * Storage inside this process, with no database and no network hop. Everything is lost when the process exits.
+ */
+public class MemoryStorage {
+
+    private MemoryStorage() {
+    }
+
+    // a new, empty storage
+    public static Storage create() {
+        MemoryTables tables = new MemoryTables();
+        return new Storage(new MemoryAccountRepository(tables), new MemoryAvailabilityRepository(tables),
+                new MemoryInventoryRepository(tables), new MemoryAppointmentRepository(tables),
+                new MemoryProvisioningRepository(tables), new MemoryWaitlistRepository(tables),
+                new MemoryChangeFeedRepository(), () -> { }, () -> { });
+    }
+}
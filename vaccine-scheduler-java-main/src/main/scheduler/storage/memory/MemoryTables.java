@@ -0,0 +1,148 @@
+package scheduler.storage.memory;
+
+import scheduler.model.Appointment;
+import scheduler.model.WaitlistEntry;
+import scheduler.storage.ChangeSet;
+import scheduler.storage.Credentials;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The tables of the in-memory backend, shared by its repositories.
+ *
+ * Every repository call is one transaction: it holds the write lock for as long as it changes anything, or the read
+ * lock while it only reads, so no caller ever sees half of a change. None of the tables are thread-safe on their
+ * own and must only be used under the lock.
+ *
+ * Like the rowversion of the SQL Server backend, every change to a caregiver's slots or a vaccine's doses gets the
+ * next version, so the in-memory copies can tell which of two writes is the newer one.
+ */
+class MemoryTables {
+
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    final Map<String, Credentials> patients = new HashMap<>();
+    final Map<String, Credentials> caregivers = new HashMap<>();
+    // the slots of every caregiver on every date, ordered by username
+    final TreeMap<LocalDate, TreeMap<String, Slots>> availabilities = new TreeMap<>();
+    final TreeMap<String, Integer> vaccines = new TreeMap<>();
+    final Map<String, Long> vaccineVersions = new HashMap<>();
+    // the version the last change got
+    long version = 0;
+    final TreeMap<Integer, Appointment> appointments = new TreeMap<>();
+    // appointment ids of every caregiver and patient, so their appointments are found without a scan
+    final Map<String, NavigableSet<Integer>> appointmentsByCaregiver = new HashMap<>();
+    final Map<String, NavigableSet<Integer>> appointmentsByPatient = new HashMap<>();
+    // appointment ids of every date, so appointments are read in date order without a sort
+    final TreeMap<LocalDate, NavigableSet<Integer>> appointmentsByTime = new TreeMap<>();
+    int nextAppointmentId = 1;
+    final TreeMap<Integer, WaitlistEntry> waitlist = new TreeMap<>();
+    int nextWaitlistId = 1;
+
+    // same rules as the MERGE of the SQL Server backend, returns how many slots were added
+    int publishAvailability(String caregiver, LocalDate date, int capacity) {
+        Slots slots = availabilities.computeIfAbsent(date, d -> new TreeMap<>()).get(caregiver);
+        if (slots == null) {
+            availabilities.get(date).put(caregiver, new Slots(capacity, ++version));
+            return capacity;
+        }
+        if (slots.capacity >= capacity) {
+            return 0;
+        }
+        int added = capacity - slots.capacity;
+        slots.capacity = capacity;
+        slots.version = ++version;
+        return added;
+    }
+
+    // books one slot of the caregiver on the date, returns false if none is free
+    boolean claimSlot(String caregiver, LocalDate date) {
+        Slots slots = findSlots(caregiver, date);
+        if (slots == null || slots.free() == 0) {
+            return false;
+        }
+        slots.booked++;
+        slots.version = ++version;
+        return true;
+    }
+
+    // frees a slot a cancelled appointment had booked
+    void releaseSlot(String caregiver, LocalDate date) {
+        Slots slots = findSlots(caregiver, date);
+        if (slots != null && slots.booked > 0) {
+            slots.booked--;
+            slots.version = ++version;
+        }
+    }
+
+    Slots findSlots(String caregiver, LocalDate date) {
+        TreeMap<String, Slots> caregivers = availabilities.get(date);
+        return caregivers == null ? null : caregivers.get(caregiver);
+    }
+
+    // same rules as the MERGE of the SQL Server backend, returns the new doses or -1 if nothing changed
+    int adjustDoses(String vaccineName, int delta) {
+        Integer doses = vaccines.get(vaccineName);
+        int newDoses = (doses == null ? 0 : doses) + delta;
+        if (newDoses < 0 || (doses == null && delta < 0)) {
+            return -1;
+        }
+        vaccines.put(vaccineName, newDoses);
+        vaccineVersions.put(vaccineName, ++version);
+        return newDoses;
+    }
+
+    // the free slots of the caregiver on the date as of their version, null if it was never uploaded
+    ChangeSet.AvailabilityChange slotsChange(String caregiver, LocalDate date) {
+        Slots slots = findSlots(caregiver, date);
+        return slots == null ? null : new ChangeSet.AvailabilityChange(date, caregiver, slots.free(), slots.version);
+    }
+
+    // the doses of the vaccine as of their version, null if it does not exist
+    ChangeSet.DoseChange dosesChange(String vaccineName) {
+        Integer doses = vaccines.get(vaccineName);
+        return doses == null ? null : new ChangeSet.DoseChange(vaccineName, doses, vaccineVersions.get(vaccineName));
+    }
+
+    void addAppointment(Appointment appointment) {
+        appointments.put(appointment.getAppointmentId(), appointment);
+        appointmentsByCaregiver.computeIfAbsent(appointment.getCaregiver(), u -> new TreeSet<>())
+                .add(appointment.getAppointmentId());
+        appointmentsByPatient.computeIfAbsent(appointment.getPatient(), u -> new TreeSet<>())
+                .add(appointment.getAppointmentId());
+        appointmentsByTime.computeIfAbsent(appointment.getTime(), d -> new TreeSet<>())
+                .add(appointment.getAppointmentId());
+    }
+
+    Appointment removeAppointment(int appointmentId) {
+        Appointment appointment = appointments.remove(appointmentId);
+        if (appointment != null) {
+            appointmentsByCaregiver.get(appointment.getCaregiver()).remove(appointmentId);
+            appointmentsByPatient.get(appointment.getPatient()).remove(appointmentId);
+            appointmentsByTime.get(appointment.getTime()).remove(appointmentId);
+        }
+        return appointment;
+    }
+
+    // how many appointments a caregiver takes on a date and how many of them are booked
+    static class Slots {
+        int capacity;
+        int booked;
+        long version;
+
+        Slots(int capacity, long version) {
+            this.capacity = capacity;
+            this.version = version;
+        }
+
+        int free() {
+            return capacity - booked;
+        }
+    }
+}
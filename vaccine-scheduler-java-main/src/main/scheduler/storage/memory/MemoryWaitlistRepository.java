@@ -0,0 +1,93 @@
+package scheduler.storage.memory;
+
+import scheduler.model.Appointment;
+import scheduler.model.WaitlistEntry;
+import scheduler.storage.Reservation;
+import scheduler.storage.Waitlist;
+import scheduler.storage.WaitlistRepository;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+class MemoryWaitlistRepository implements WaitlistRepository {
+
+    private final MemoryTables tables;
+
+    MemoryWaitlistRepository(MemoryTables tables) {
+        this.tables = tables;
+    }
+
+    @Override
+    public WaitlistEntry add(String patient, String vaccineName, LocalDate from, LocalDate until) {
+        tables.lock.writeLock().lock();
+        try {
+            WaitlistEntry entry = new WaitlistEntry(tables.nextWaitlistId++, patient, vaccineName, from, until);
+            tables.waitlist.put(entry.getWaitlistId(), entry);
+            return entry;
+        } finally {
+            tables.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<WaitlistEntry> consumer) {
+        List<WaitlistEntry> entries;
+        tables.lock.readLock().lock();
+        try {
+            entries = new ArrayList<>(tables.waitlist.values());
+        } finally {
+            tables.lock.readLock().unlock();
+        }
+        for (WaitlistEntry entry : entries) {
+            consumer.accept(entry);
+        }
+    }
+
+    @Override
+    public boolean remove(int waitlistId) {
+        tables.lock.writeLock().lock();
+        try {
+            return tables.waitlist.remove(waitlistId) != null;
+        } finally {
+            tables.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Reservation> assign(List<Waitlist.Assignment> assignments) {
+        List<Reservation> reservations = new ArrayList<>(assignments.size());
+        tables.lock.writeLock().lock();
+        try {
+            for (Waitlist.Assignment assignment : assignments) {
+                reservations.add(assign(assignment));
+            }
+        } finally {
+            tables.lock.writeLock().unlock();
+        }
+        return reservations;
+    }
+
+    // checks everything before changing anything, so a rejected assignment leaves nothing to undo
+    private Reservation assign(Waitlist.Assignment assignment) {
+        WaitlistEntry entry = assignment.getEntry();
+        if (!tables.waitlist.containsKey(entry.getWaitlistId())) {
+            return Reservation.rejected(Reservation.Status.NOT_WAITING);
+        }
+        MemoryTables.Slots slots = tables.findSlots(assignment.getCaregiver(), assignment.getDate());
+        if (slots == null || slots.free() == 0) {
+            return Reservation.rejected(Reservation.Status.NO_CAREGIVER);
+        }
+        if (tables.adjustDoses(entry.getVaccineName(), -1) < 0) {
+            return Reservation.rejected(Reservation.Status.NOT_ENOUGH_DOSES);
+        }
+        tables.claimSlot(assignment.getCaregiver(), assignment.getDate());
+        tables.waitlist.remove(entry.getWaitlistId());
+        int appointmentId = tables.nextAppointmentId++;
+        tables.addAppointment(new Appointment(appointmentId, assignment.getDate(), assignment.getCaregiver(),
+                entry.getPatient(), entry.getVaccineName()));
+        return Reservation.booked(appointmentId, tables.slotsChange(assignment.getCaregiver(), assignment.getDate()),
+                tables.dosesChange(entry.getVaccineName()));
+    }
+}
@@ -0,0 +1,106 @@
+package scheduler.storage.sqlserver;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.PooledConnection;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Asks SQL Server how it would run the hot queries and reports every one that would scan a table or index instead
+ * of seeking, e.g. because a migration with its index was not applied or the statistics make an index look useless.
+ *
+ * The queries are only compiled, never run. On a nearly empty database SQL Server may prefer a scan even with the
+ * right index, so a reported scan is a hint to look at, not an error.
+ */
+class PlanCheck {
+
+    // the hot queries with made-up values, as the repositories send them
+    private static final Map<String, String> QUERIES = new LinkedHashMap<>();
+
+    static {
+        QUERIES.put("search_caregiver_schedule",
+                "DECLARE @time date = '2030-01-01'; " +
+                "SELECT Username FROM Availabilities WHERE Time = @time AND Booked < Capacity ORDER BY Username ASC;");
+        QUERIES.put("search_earliest",
+                "DECLARE @first date = '2030-01-01', @last date = '2030-12-31'; " +
+                "SELECT TOP (1) Time FROM Availabilities WHERE Time BETWEEN @first AND @last AND Booked < Capacity " +
+                "ORDER BY Time;");
+        QUERIES.put("login_patient",
+                "DECLARE @username varchar(255) = 'plan_check'; " +
+                "SELECT Salt, Hash FROM Patients WHERE Username = @username;");
+        QUERIES.put("login_caregiver",
+                "DECLARE @username varchar(255) = 'plan_check'; " +
+                "SELECT Salt, Hash FROM Caregivers WHERE Username = @username;");
+        QUERIES.put("show_appointments (caregiver)",
+                "DECLARE @username varchar(255) = 'plan_check', @after int = 0; " +
+                "SELECT TOP (100) appointment_id, Time, Caregiver, Patient, Vaccine_Name FROM Appointments " +
+                "WHERE Caregiver = @username AND appointment_id > @after ORDER BY appointment_id;");
+        QUERIES.put("show_appointments (patient)",
+                "DECLARE @username varchar(255) = 'plan_check', @after int = 0; " +
+                "SELECT TOP (100) appointment_id, Time, Caregiver, Patient, Vaccine_Name FROM Appointments " +
+                "WHERE Patient = @username AND appointment_id > @after ORDER BY appointment_id;");
+        QUERIES.put("appointments on a date",
+                "DECLARE @time date = '2030-01-01'; " +
+                "SELECT appointment_id, Caregiver, Patient, Vaccine_Name FROM Appointments WHERE Time = @time;");
+        QUERIES.put("change_feed",
+                "DECLARE @since binary(8) = 0x0000000000000001, @upTo binary(8) = MIN_ACTIVE_ROWVERSION(); " +
+                "SELECT Time, Username, Slots, CAST(Version AS bigint) AS Version FROM AvailabilityChanges " +
+                "WHERE Version >= @since AND Version < @upTo ORDER BY Version;");
+    }
+
+    private static final Pattern SCAN = Pattern.compile(
+            "PhysicalOp=\"((?:Clustered )?Index Scan|Table Scan)\".*?<Object [^>]*Table=\"\\[([^\\]]+)\\]\"",
+            Pattern.DOTALL);
+
+    // the scans found, e.g. "show_appointments (patient): Clustered Index Scan on Appointments"
+    List<String> run() throws SQLException {
+        List<String> scans = new ArrayList<>();
+        try (PooledConnection pc = ConnectionManager.getInstance().leaseForPrimaryRead();
+             Statement statement = pc.getConnection().createStatement()) {
+            Connection con = pc.getConnection();
+            statement.execute("SET SHOWPLAN_XML ON");
+            try {
+                for (Map.Entry<String, String> query : QUERIES.entrySet()) {
+                    for (String plan : plans(statement, query.getValue())) {
+                        Matcher matcher = SCAN.matcher(plan);
+                        while (matcher.find()) {
+                            scans.add(query.getKey() + ": " + matcher.group(1) + " on " + matcher.group(2));
+                        }
+                    }
+                }
+            } finally {
+                // the connection goes back to the pool, where it has to run queries again
+                try (Statement off = con.createStatement()) {
+                    off.execute("SET SHOWPLAN_XML OFF");
+                }
+            }
+        }
+        return scans;
+    }
+
+    // with SHOWPLAN_XML on, every statement of the batch returns its plan instead of its result
+    private static List<String> plans(Statement statement, String query) throws SQLException {
+        List<String> plans = new ArrayList<>();
+        boolean hasResultSet = statement.execute(query);
+        while (hasResultSet || statement.getUpdateCount() != -1) {
+            if (hasResultSet) {
+                try (ResultSet resultSet = statement.getResultSet()) {
+                    while (resultSet.next()) {
+                        plans.add(resultSet.getString(1));
+                    }
+                }
+            }
+            hasResultSet = statement.getMoreResults();
+        }
+        return plans;
+    }
+}
@@ -0,0 +1,146 @@
+package scheduler.storage.sqlserver;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.PooledConnection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Brings the database schema up to date at startup.
+ *
+ * Migrations are the numbered scripts resources/migrations/V1.sql, V2.sql, ... and are applied in order, each one in
+ * its own transaction together with its row in the SchemaVersion table, so a failed migration leaves nothing behind
+ * and is tried again at the next start. Scripts may be split into batches with lines that only say GO. An
+ * application lock keeps two schedulers starting at the same time from migrating at once.
+ *
+ * New schema changes go into a new script with the next number; scripts that were applied somewhere must never be
+ * changed.
+ */
+class SchemaMigrator {
+
+    private static final String SCRIPTS = "/resources/migrations/V";
+    private static final int LOCK_TIMEOUT_MILLIS = 60_000;
+
+    void migrate() throws SQLException {
+        List<String> scripts = loadScripts();
+        try (PooledConnection pc = ConnectionManager.getInstance().lease()) {
+            Connection con = pc.getConnection();
+            lock(con);
+            try {
+                int version = currentVersion(con);
+                for (int v = version + 1; v <= scripts.size(); v++) {
+                    apply(con, v, scripts.get(v - 1));
+                    System.out.println("Applied schema migration V" + v);
+                }
+            } finally {
+                unlock(con);
+            }
+        }
+    }
+
+    private static List<String> loadScripts() throws SQLException {
+        List<String> scripts = new ArrayList<>();
+        for (int v = 1; ; v++) {
+            try (InputStream in = SchemaMigrator.class.getResourceAsStream(SCRIPTS + v + ".sql")) {
+                if (in == null) {
+                    return scripts;
+                }
+                scripts.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new SQLException("Could not read migration V" + v, e);
+            }
+        }
+    }
+
+    // the last applied version, creating the version table first if needed
+    private static int currentVersion(Connection con) throws SQLException {
+        try (Statement statement = con.createStatement()) {
+            statement.execute("IF OBJECT_ID('SchemaVersion') IS NULL " +
+                    "CREATE TABLE SchemaVersion (Version int PRIMARY KEY, " +
+                    "AppliedAt datetime2 NOT NULL DEFAULT SYSUTCDATETIME())");
+            // databases created with create.sql already have everything V1 creates
+            statement.execute("IF NOT EXISTS (SELECT 1 FROM SchemaVersion) AND OBJECT_ID('Caregivers') IS NOT NULL " +
+                    "INSERT INTO SchemaVersion (Version) VALUES (1)");
+            try (ResultSet resultSet = statement.executeQuery("SELECT MAX(Version) AS Version FROM SchemaVersion")) {
+                resultSet.next();
+                return resultSet.getInt("Version");
+            }
+        }
+    }
+
+    private static void apply(Connection con, int version, String script) throws SQLException {
+        con.setAutoCommit(false);
+        try {
+            try (Statement statement = con.createStatement()) {
+                for (String batch : batches(script)) {
+                    statement.execute(batch);
+                }
+            }
+            try (PreparedStatement statement =
+                         con.prepareStatement("INSERT INTO SchemaVersion (Version) VALUES (?)")) {
+                statement.setInt(1, version);
+                statement.executeUpdate();
+            }
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException("Migration V" + version + " failed: " + e.getMessage(), e);
+        } finally {
+            con.setAutoCommit(true);
+        }
+    }
+
+    // the script split at lines that only say GO, which is how SQL Server tools separate batches
+    private static List<String> batches(String script) {
+        List<String> batches = new ArrayList<>();
+        StringBuilder batch = new StringBuilder();
+        for (String line : script.split("\\R")) {
+            if (line.trim().equalsIgnoreCase("GO")) {
+                addBatch(batches, batch);
+            } else {
+                batch.append(line).append('\n');
+            }
+        }
+        addBatch(batches, batch);
+        return batches;
+    }
+
+    private static void addBatch(List<String> batches, StringBuilder batch) {
+        if (!batch.toString().isBlank()) {
+            batches.add(batch.toString());
+        }
+        batch.setLength(0);
+    }
+
+    private static void lock(Connection con) throws SQLException {
+        try (CallableStatement statement = con.prepareCall("{? = call sp_getapplock(?, ?, ?, ?)}")) {
+            statement.registerOutParameter(1, java.sql.Types.INTEGER);
+            statement.setString(2, "SchemaMigration");
+            statement.setString(3, "Exclusive");
+            statement.setString(4, "Session");
+            statement.setInt(5, LOCK_TIMEOUT_MILLIS);
+            statement.execute();
+            if (statement.getInt(1) < 0) {
+                throw new SQLException("Timed out waiting for another scheduler to finish migrating");
+            }
+        }
+    }
+
+    private static void unlock(Connection con) throws SQLException {
+        try (CallableStatement statement = con.prepareCall("{call sp_releaseapplock(?, ?)}")) {
+            statement.setString(1, "SchemaMigration");
+            statement.setString(2, "Session");
+            statement.execute();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package scheduler.storage.sqlserver;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.PooledConnection;
+import scheduler.storage.AccountRepository;
+import scheduler.storage.Credentials;
+import scheduler.util.Util;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+class SqlServerAccountRepository implements AccountRepository {
+
+    // for provisioning batches, where a duplicate key would fail the whole batch
+    static final String ADD_PATIENT = "INSERT INTO Patients (Username, Salt, Hash) SELECT ?, ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Patients WITH (UPDLOCK, HOLDLOCK) WHERE Username = ?)";
+    static final String ADD_CAREGIVER = "INSERT INTO Caregivers (Username, Salt, Hash) SELECT ?, ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Caregivers WITH (UPDLOCK, HOLDLOCK) WHERE Username = ?)";
+
+    // SQL Server errors for a duplicate primary key or unique index
+    private static final int DUPLICATE_KEY = 2627;
+    private static final int DUPLICATE_INDEX_KEY = 2601;
+
+    @Override
+    public boolean addPatient(String username, byte[] salt, byte[] hash) throws SQLException {
+        return add("INSERT INTO Patients (Username, Salt, Hash) VALUES (?, ?, ?)", username, salt, hash);
+    }
+
+    @Override
+    public boolean addCaregiver(String username, byte[] salt, byte[] hash) throws SQLException {
+        return add("INSERT INTO Caregivers (Username, Salt, Hash) VALUES (?, ?, ?)", username, salt, hash);
+    }
+
+    @Override
+    public Credentials findPatient(String username) throws SQLException {
+        return find("SELECT Salt, Hash FROM Patients WHERE Username = ?", username);
+    }
+
+    @Override
+    public Credentials findCaregiver(String username) throws SQLException {
+        return find("SELECT Salt, Hash FROM Caregivers WHERE Username = ?", username);
+    }
+
+    @Override
+    public boolean patientExists(String username) throws SQLException {
+        return exists("SELECT 1 FROM Patients WHERE Username = ?", username);
+    }
+
+    @Override
+    public boolean caregiverExists(String username) throws SQLException {
+        return exists("SELECT 1 FROM Caregivers WHERE Username = ?", username);
+    }
+
+    @Override
+    public void forEachPatient(Consumer<String> consumer) throws SQLException {
+        forEach("SELECT Username FROM Patients", consumer);
+    }
+
+    @Override
+    public void forEachCaregiver(Consumer<String> consumer) throws SQLException {
+        forEach("SELECT Username FROM Caregivers", consumer);
+    }
+
+    // a plain insert, the primary key settles two schedulers adding the same username at the same time
+    private static boolean add(String sql, String username, byte[] salt, byte[] hash) throws SQLException {
+        try (PooledConnection pc = ConnectionManager.getInstance().lease()) {
+            PreparedStatement statement = pc.prepare(sql);
+            statement.setString(1, username);
+            statement.setBytes(2, salt);
+            statement.setBytes(3, hash);
+            statement.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            if (e.getErrorCode() == DUPLICATE_KEY || e.getErrorCode() == DUPLICATE_INDEX_KEY) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    // logins may read from a replica, a session that just created the account reads from the primary
+    private static Credentials find(String sql, String username) throws SQLException {
+        try (PooledConnection pc = ConnectionManager.getInstance().leaseForRead()) {
+            PreparedStatement statement = pc.prepare(sql);
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+                // we need to call Util.trim() to get rid of the paddings,
+                // try to remove the use of Util.trim() and you'll see :)
+                return new Credentials(resultSet.getBytes("Salt"), Util.trim(resultSet.getBytes("Hash")));
+            }
+        }
+    }
+
+    private static boolean exists(String sql, String username) throws SQLException {
+        try (PooledConnection pc = ConnectionManager.getInstance().leaseForPrimaryRead()) {
+            PreparedStatement statement = pc.prepare(sql);
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    private static void forEach(String sql, Consumer<String> consumer) throws SQLException {
+        try (PooledConnection pc = ConnectionManager.getInstance().leaseForPrimaryRead()) {
+            PreparedStatement statement = pc.prepare(sql);
+            statement.setFetchSize(1_000);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    consumer.accept(resultSet.getString("Username"));
+                }
+            }
+        }
+    }
+}
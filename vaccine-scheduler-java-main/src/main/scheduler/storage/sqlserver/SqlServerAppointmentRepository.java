@@ -0,0 +1,352 @@
+package scheduler.storage.sqlserver;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.PooledConnection;
+import scheduler.db.TransientRetry;
+import scheduler.model.Appointment;
+import scheduler.storage.AppointmentRepository;
+import scheduler.storage.Cancellation;
+import scheduler.storage.ChangeSet;
+import scheduler.storage.Reservation;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
+
+/**
+ * Appointments in SQL Server. Reservations and cancellations each run as a single T-SQL batch, so they take one
+ * round trip and one transaction. Cancelling many appointments at once takes one round trip as well, with set-based
+ * statements that cost about the same for one appointment as for hundreds.
+ *
+ * A reservation books a slot by counting it in the caregiver's Availabilities row, only while Booked is below
+ * Capacity, so concurrent reservations for the same caregiver queue on the row for the length of one batch and never
+ * book more slots than there are. The dose is only taken while Doses is still positive. Cancellations count the slot
+ * back, so the row stays and neither reservations nor cancellations insert or delete availabilities.
+ */
+class SqlServerAppointmentRepository implements AppointmentRepository {
+
+    // rows fetched per round trip when reading a page of appointments
+    private static final int APPOINTMENTS_FETCH_SIZE = 100;
+    // rows fetched per round trip when streaming appointments for an export, large enough that the round trips
+    // hardly matter while the rows in memory stay bounded
+    private static final int EXPORT_FETCH_SIZE = 5_000;
+
+    private static final String RESERVE =
+            "SET NOCOUNT ON; " +
+            "SET XACT_ABORT ON; " +
+            "DECLARE @time date = ?, @vaccine varchar(255) = ?, @patient varchar(255) = ?, " +
+            "        @candidate varchar(255) = ?; " +
+            "DECLARE @claimed TABLE (Username varchar(255), Slots int, Version bigint); " +
+            "DECLARE @taken TABLE (Doses int, Version bigint); " +
+            "DECLARE @booked TABLE (appointment_id int); " +
+            "BEGIN TRANSACTION; " +
+            // book a slot of the caregiver the availability index picked, if it still has a free one
+            "UPDATE Availabilities WITH (ROWLOCK) SET Booked = Booked + 1 " +
+            "OUTPUT inserted.Username, inserted.Capacity - inserted.Booked, CAST(inserted.Version AS bigint) " +
+            "INTO @claimed " +
+            "WHERE Time = @time AND Username = @candidate AND Booked < Capacity; " +
+            // otherwise book a slot of the first caregiver by username that has one
+            "IF @@ROWCOUNT = 0 " +
+            "BEGIN " +
+            "    UPDATE Availabilities SET Booked = Booked + 1 " +
+            "    OUTPUT inserted.Username, inserted.Capacity - inserted.Booked, CAST(inserted.Version AS bigint) " +
+            "    INTO @claimed " +
+            "    WHERE Time = @time AND Booked < Capacity AND Username = (" +
+            "        SELECT TOP (1) Username FROM Availabilities WITH (UPDLOCK, ROWLOCK) " +
+            "        WHERE Time = @time AND Booked < Capacity ORDER BY Username); " +
+            "    IF @@ROWCOUNT = 0 " +
+            "    BEGIN " +
+            "        ROLLBACK TRANSACTION; " +
+            "        SELECT 'NO_CAREGIVER' AS Status, CAST(NULL AS int) AS appointment_id, " +
+            "               CAST(NULL AS varchar(255)) AS Caregiver; " +
+            "        RETURN; " +
+            "    END; " +
+            "END; " +
+            // take one dose, but never below zero
+            "UPDATE Vaccines SET Doses = Doses - 1 " +
+            "OUTPUT inserted.Doses, CAST(inserted.Version AS bigint) INTO @taken " +
+            "WHERE Name = @vaccine AND Doses > 0; " +
+            "IF @@ROWCOUNT = 0 " +
+            "BEGIN " +
+            "    ROLLBACK TRANSACTION; " +
+            "    SELECT 'NOT_ENOUGH_DOSES' AS Status, CAST(NULL AS int) AS appointment_id, " +
+            "           CAST(NULL AS varchar(255)) AS Caregiver; " +
+            "    RETURN; " +
+            "END; " +
+            "INSERT INTO Appointments (Time, Caregiver, Patient, Vaccine_Name) " +
+            "OUTPUT inserted.appointment_id INTO @booked " +
+            "SELECT @time, Username, @patient, @vaccine FROM @claimed; " +
+            "COMMIT TRANSACTION; " +
+            // the slots and doses left, with the versions they were written at
+            "SELECT 'BOOKED' AS Status, b.appointment_id, c.Username AS Caregiver, c.Slots, " +
+            "       c.Version AS SlotsVersion, t.Doses, t.Version AS DosesVersion " +
+            "FROM @booked b CROSS JOIN @claimed c CROSS JOIN @taken t;";
+
+    // a seek on the primary key, and an appointment of another user is filtered out like an unknown id
+    private static final String CANCEL_OF_PATIENT = cancelBatch("appointment_id = ? AND Patient = ?");
+    private static final String CANCEL_OF_CAREGIVER = cancelBatch("appointment_id = ? AND Caregiver = ?");
+
+    // the ids are sent as one comma-separated string, so any number of them is a single parameter; each one is a
+    // seek on the primary key, and appointments of other users are filtered out like unknown ids
+    private static final String CANCEL_ALL_OF_PATIENT =
+            cancelBatch("appointment_id IN (SELECT CAST(value AS int) FROM STRING_SPLIT(?, ',')) AND Patient = ?");
+    private static final String CANCEL_ALL_OF_CAREGIVER =
+            cancelBatch("appointment_id IN (SELECT CAST(value AS int) FROM STRING_SPLIT(?, ',')) AND Caregiver = ?");
+
+    // a range seek on IX_Appointments_Time; one statement with and one without the caregiver, since a predicate like
+    // (? IS NULL OR Caregiver = ?) would get a single cached plan that has to suit both
+    private static final String CANCEL_ON = cancelBatch("Time = ?");
+    private static final String CANCEL_ON_OF_CAREGIVER = cancelBatch("Time = ? AND Caregiver = ?");
+
+    @Override
+    public Reservation reserve(LocalDate date, String vaccineName, String patient, String candidate)
+            throws SQLException {
+        // the whole batch is one transaction that a deadlock rolls back, so it can simply run again
+        return TransientRetry.run(() -> {
+            try (PooledConnection pc = ConnectionManager.getInstance().lease()) {
+                PreparedStatement statement = pc.prepare(RESERVE);
+                statement.setDate(1, Date.valueOf(date));
+                statement.setString(2, vaccineName);
+                statement.setString(3, patient);
+                statement.setString(4, candidate);
+                try (ResultSet resultSet = firstResultSet(statement)) {
+                    if (!resultSet.next()) {
+                        throw new SQLException("Reservation returned no status");
+                    }
+                    Reservation.Status status = Reservation.Status.valueOf(resultSet.getString("Status"));
+                    if (status != Reservation.Status.BOOKED) {
+                        return Reservation.rejected(status);
+                    }
+                    return Reservation.booked(resultSet.getInt("appointment_id"),
+                            new ChangeSet.AvailabilityChange(date, resultSet.getString("Caregiver"),
+                                    resultSet.getInt("Slots"), resultSet.getLong("SlotsVersion")),
+                            new ChangeSet.DoseChange(vaccineName, resultSet.getInt("Doses"),
+                                    resultSet.getLong("DosesVersion")));
+                }
+            }
+        });
+    }
+
+    @Override
+    public Cancellation cancel(int appointmentId, String patient, String caregiver) throws SQLException {
+        String cancel = patient != null ? CANCEL_OF_PATIENT : CANCEL_OF_CAREGIVER;
+        String owner = patient != null ? patient : caregiver;
+        return TransientRetry.run(() -> {
+            try (PooledConnection pc = ConnectionManager.getInstance().lease()) {
+                PreparedStatement statement = pc.prepare(cancel);
+                statement.setInt(1, appointmentId);
+                statement.setString(2, owner);
+                return readCancelled(statement);
+            }
+        });
+    }
+
+    @Override
+    public Cancellation cancelAll(List<Integer> appointmentIds, String patient, String caregiver)
+            throws SQLException {
+        if (appointmentIds.isEmpty()) {
+            return new Cancellation(new ArrayList<>(), ChangeSet.empty());
+        }
+        StringJoiner ids = new StringJoiner(",");
+        for (int appointmentId : appointmentIds) {
+            ids.add(Integer.toString(appointmentId));
+        }
+        String cancelAll = patient != null ? CANCEL_ALL_OF_PATIENT : CANCEL_ALL_OF_CAREGIVER;
+        String owner = patient != null ? patient : caregiver;
+        return TransientRetry.run(() -> {
+            try (PooledConnection pc = ConnectionManager.getInstance().lease()) {
+                PreparedStatement statement = pc.prepare(cancelAll);
+                statement.setString(1, ids.toString());
+                statement.setString(2, owner);
+                return readCancelled(statement);
+            }
+        });
+    }
+
+    @Override
+    public Cancellation cancelOn(LocalDate date, String caregiver) throws SQLException {
+        return TransientRetry.run(() -> {
+            try (PooledConnection pc = ConnectionManager.getInstance().lease()) {
+                PreparedStatement statement = pc.prepare(caregiver == null ? CANCEL_ON : CANCEL_ON_OF_CAREGIVER);
+                statement.setDate(1, Date.valueOf(date));
+                if (caregiver != null) {
+                    statement.setString(2, caregiver);
+                }
+                return readCancelled(statement);
+            }
+        });
+    }
+
+    @Override
+    public void forEachOfCaregiver(String caregiver, int afterId, int limit, Consumer<Appointment> consumer)
+            throws SQLException {
+        forEach("Caregiver", caregiver, afterId, limit, consumer);
+    }
+
+    @Override
+    public void forEachOfPatient(String patient, int afterId, int limit, Consumer<Appointment> consumer)
+            throws SQLException {
+        forEach("Patient", patient, afterId, limit, consumer);
+    }
+
+    @Override
+    public void forEachBetween(LocalDate first, LocalDate last, Consumer<Appointment> consumer) throws SQLException {
+        // a range seek on IX_Appointments_Time, which is already in this order and covers every column
+        String selectAppointments = "SELECT appointment_id, Time, Caregiver, Patient, Vaccine_Name " +
+                "FROM Appointments WHERE Time BETWEEN ? AND ? ORDER BY Time, appointment_id";
+        try (PooledConnection pc = ConnectionManager.getInstance().leaseForRead()) {
+            PreparedStatement statement = pc.prepare(selectAppointments);
+            statement.setDate(1, Date.valueOf(first));
+            statement.setDate(2, Date.valueOf(last));
+            statement.setFetchSize(EXPORT_FETCH_SIZE);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    consumer.accept(toAppointment(resultSet));
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean[] deleteArchived(List<Integer> appointmentIds) throws SQLException {
+        String deleteAppointment = "DELETE FROM Appointments WHERE appointment_id = ?";
+        boolean[] deleted = new boolean[appointmentIds.size()];
+        try (PooledConnection pc = ConnectionManager.getInstance().lease()) {
+            PreparedStatement statement = pc.prepare(deleteAppointment);
+            Connection con = pc.getConnection();
+            con.setAutoCommit(false);
+            for (int appointmentId : appointmentIds) {
+                statement.setInt(1, appointmentId);
+                statement.addBatch();
+            }
+            int[] counts = statement.executeBatch();
+            con.commit();
+            for (int i = 0; i < counts.length; i++) {
+                // drivers may report SUCCESS_NO_INFO instead of a row count
+                deleted[i] = counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO;
+            }
+        }
+        // the lease rolls back and restores auto-commit if anything above failed
+        return deleted;
+    }
+
+    // the database filters by the user and pages by appointment_id, so only one page of the user's own appointments
+    // is read, no matter how many appointments there are in total
+    private static void forEach(String userColumn, String username, int afterId, int limit,
+                                Consumer<Appointment> consumer) throws SQLException {
+        String selectAppointments = "SELECT TOP (?) appointment_id, Time, Caregiver, Patient, Vaccine_Name " +
+                "FROM Appointments WHERE " + userColumn + " = ? AND appointment_id > ? ORDER BY appointment_id";
+        try (PooledConnection pc = ConnectionManager.getInstance().leaseForRead()) {
+            PreparedStatement statement = pc.prepare(selectAppointments);
+            statement.setInt(1, limit);
+            statement.setString(2, username);
+            statement.setInt(3, afterId);
+            // rows are handed on as they arrive instead of after the whole page was buffered
+            statement.setFetchSize(Math.min(limit, APPOINTMENTS_FETCH_SIZE));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    consumer.accept(toAppointment(resultSet));
+                }
+            }
+        }
+    }
+
+    /**
+     * The T-SQL batch that cancels the appointments matching the condition in one transaction, with one statement
+     * per table however many there are: the DELETE outputs the cancelled appointments, their slots are freed in one
+     * UPDATE, and their doses go back in another, both counted with GROUP BY.
+     * Returns the cancelled appointments in id order.
+     */
+    private static String cancelBatch(String condition) {
+        return "SET NOCOUNT ON; " +
+                "SET XACT_ABORT ON; " +
+                "DECLARE @cancelled TABLE (appointment_id int, Time date, Caregiver varchar(255), " +
+                "                          Patient varchar(255), Vaccine_Name varchar(255)); " +
+                "DECLARE @freed TABLE (Time date, Username varchar(255), Slots int, Version bigint); " +
+                "DECLARE @restocked TABLE (Name varchar(255), Doses int, Version bigint); " +
+                "BEGIN TRANSACTION; " +
+                "DELETE FROM Appointments " +
+                "OUTPUT deleted.appointment_id, deleted.Time, deleted.Caregiver, deleted.Patient, " +
+                "       deleted.Vaccine_Name " +
+                "INTO @cancelled WHERE " + condition + "; " +
+                // the slots are free again, one UPDATE per caregiver's day, and the doses go back into stock
+                "UPDATE a SET Booked = a.Booked - c.Slots " +
+                "OUTPUT inserted.Time, inserted.Username, inserted.Capacity - inserted.Booked, " +
+                "       CAST(inserted.Version AS bigint) INTO @freed " +
+                "FROM Availabilities a " +
+                "JOIN (SELECT Time, Caregiver, COUNT(*) AS Slots FROM @cancelled GROUP BY Time, Caregiver) c " +
+                "ON a.Time = c.Time AND a.Username = c.Caregiver; " +
+                "UPDATE v SET Doses = v.Doses + d.Doses " +
+                "OUTPUT inserted.Name, inserted.Doses, CAST(inserted.Version AS bigint) INTO @restocked " +
+                "FROM Vaccines v " +
+                "JOIN (SELECT Vaccine_Name, COUNT(*) AS Doses FROM @cancelled GROUP BY Vaccine_Name) d " +
+                "ON v.Name = d.Vaccine_Name; " +
+                "COMMIT TRANSACTION; " +
+                "SELECT appointment_id, Time, Caregiver, Patient, Vaccine_Name FROM @cancelled " +
+                "ORDER BY appointment_id; " +
+                // the slots and doses left, with the versions they were written at
+                "SELECT Time, Username, Slots, Version FROM @freed; " +
+                "SELECT Name, Doses, Version FROM @restocked;";
+    }
+
+    // the result set of a multi-statement batch, skipping any update counts the driver reports before it
+    static ResultSet firstResultSet(PreparedStatement statement) throws SQLException {
+        boolean hasResultSet = statement.execute();
+        while (!hasResultSet && statement.getUpdateCount() != -1) {
+            hasResultSet = statement.getMoreResults();
+        }
+        if (!hasResultSet) {
+            throw new SQLException("Batch returned no result");
+        }
+        return statement.getResultSet();
+    }
+
+    // the next result set of a multi-statement batch, skipping any update counts the driver reports before it
+    static ResultSet nextResultSet(PreparedStatement statement) throws SQLException {
+        boolean hasResultSet = statement.getMoreResults();
+        while (!hasResultSet && statement.getUpdateCount() != -1) {
+            hasResultSet = statement.getMoreResults();
+        }
+        if (!hasResultSet) {
+            throw new SQLException("Batch returned too few results");
+        }
+        return statement.getResultSet();
+    }
+
+    private static Cancellation readCancelled(PreparedStatement statement) throws SQLException {
+        List<Appointment> cancelled = new ArrayList<>();
+        try (ResultSet resultSet = firstResultSet(statement)) {
+            while (resultSet.next()) {
+                cancelled.add(toAppointment(resultSet));
+            }
+        }
+        List<ChangeSet.AvailabilityChange> availabilities = new ArrayList<>();
+        try (ResultSet resultSet = nextResultSet(statement)) {
+            while (resultSet.next()) {
+                availabilities.add(new ChangeSet.AvailabilityChange(resultSet.getDate("Time").toLocalDate(),
+                        resultSet.getString("Username"), resultSet.getInt("Slots"), resultSet.getLong("Version")));
+            }
+        }
+        List<ChangeSet.DoseChange> doses = new ArrayList<>();
+        try (ResultSet resultSet = nextResultSet(statement)) {
+            while (resultSet.next()) {
+                doses.add(new ChangeSet.DoseChange(resultSet.getString("Name"), resultSet.getInt("Doses"),
+                        resultSet.getLong("Version")));
+            }
+        }
+        return new Cancellation(cancelled, ChangeSet.of(availabilities, doses));
+    }
+
+    private static Appointment toAppointment(ResultSet resultSet) throws SQLException {
+        return new Appointment(resultSet.getInt("appointment_id"), resultSet.getDate("Time").toLocalDate(),
+                resultSet.getString("Caregiver"), resultSet.getString("Patient"), resultSet.getString("Vaccine_Name"));
+    }
+}
@@ -0,0 +1,152 @@
+package scheduler.storage.sqlserver;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.PooledConnection;
+import scheduler.storage.AvailabilityRepository;
+import scheduler.storage.ChangeSet;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.StringJoiner;
+import java.util.TreeSet;
+
+class SqlServerAvailabilityRepository implements AvailabilityRepository {
+
+    // rows fetched per round trip when streaming availabilities for an export
+    private static final int EXPORT_FETCH_SIZE = 5_000;
+
+    // inserts the date with one slot unless it was already uploaded, for provisioning batches
+    static final String ADD_AVAILABILITY = "INSERT INTO Availabilities (Time, Username) SELECT ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Availabilities WITH (UPDLOCK, HOLDLOCK) WHERE Time = ? AND Username = ?)";
+
+    // one MERGE for every date, sent as a comma-separated list; the trigger on Availabilities rules out a plain
+    // OUTPUT, so the free slots of the dates that got new ones go through a table variable
+    private static final String PUBLISH =
+            "SET NOCOUNT ON; " +
+            "DECLARE @caregiver varchar(255) = ?, @capacity int = ?; " +
+            "DECLARE @added TABLE (Time date, Slots int, Version bigint); " +
+            "MERGE Availabilities WITH (HOLDLOCK) AS a " +
+            "USING (SELECT DISTINCT CAST(value AS date) AS Time FROM STRING_SPLIT(?, ',')) AS s " +
+            "ON a.Time = s.Time AND a.Username = @caregiver " +
+            "WHEN MATCHED AND a.Capacity < @capacity THEN UPDATE SET Capacity = @capacity " +
+            "WHEN NOT MATCHED THEN INSERT (Time, Username, Capacity) VALUES (s.Time, @caregiver, @capacity) " +
+            "OUTPUT inserted.Time, inserted.Capacity - inserted.Booked, CAST(inserted.Version AS bigint) " +
+            "INTO @added; " +
+            "SELECT Time, Slots, Version FROM @added ORDER BY Time;";
+
+    @Override
+    public ChangeSet.AvailabilityChange add(String caregiver, LocalDate date, int capacity) throws SQLException {
+        List<ChangeSet.AvailabilityChange> added = addAll(caregiver, List.of(date), capacity);
+        return added.isEmpty() ? null : added.get(0);
+    }
+
+    @Override
+    public List<ChangeSet.AvailabilityChange> addAll(String caregiver, List<LocalDate> dates, int capacity)
+            throws SQLException {
+        List<ChangeSet.AvailabilityChange> added = new ArrayList<>();
+        if (dates.isEmpty()) {
+            return added;
+        }
+        StringJoiner days = new StringJoiner(",");
+        for (LocalDate date : dates) {
+            days.add(date.toString());
+        }
+        try (PooledConnection pc = ConnectionManager.getInstance().lease()) {
+            PreparedStatement statement = pc.prepare(PUBLISH);
+            statement.setString(1, caregiver);
+            statement.setInt(2, capacity);
+            statement.setString(3, days.toString());
+            try (ResultSet resultSet = SqlServerAppointmentRepository.firstResultSet(statement)) {
+                while (resultSet.next()) {
+                    added.add(new ChangeSet.AvailabilityChange(resultSet.getDate("Time").toLocalDate(), caregiver,
+                            resultSet.getInt("Slots"), resultSet.getLong("Version")));
+                }
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public NavigableSet<String> findCaregivers(LocalDate date) throws SQLException {
+        String selectAvailableCaregivers = "SELECT Username FROM Availabilities WHERE Time = ? AND Booked < Capacity " +
+                "ORDER BY Username ASC;";
+        NavigableSet<String> caregivers = new TreeSet<>();
+        try (PooledConnection pc = ConnectionManager.getInstance().leaseForRead()) {
+            PreparedStatement statement = pc.prepare(selectAvailableCaregivers);
+            statement.setDate(1, Date.valueOf(date));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    caregivers.add(resultSet.getString("Username"));
+                }
+            }
+        }
+        return caregivers;
+    }
+
+    @Override
+    public LocalDate findFirstDate(LocalDate first, LocalDate last) throws SQLException {
+        // a seek on the primary key, which is ordered by Time, skipping the days that are booked out
+        String selectFirstDate = "SELECT TOP (1) Time FROM Availabilities WHERE Time BETWEEN ? AND ? " +
+                "AND Booked < Capacity ORDER BY Time";
+        try (PooledConnection pc = ConnectionManager.getInstance().leaseForRead()) {
+            PreparedStatement statement = pc.prepare(selectFirstDate);
+            statement.setDate(1, Date.valueOf(first));
+            statement.setDate(2, Date.valueOf(last));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getDate("Time").toLocalDate() : null;
+            }
+        }
+    }
+
+    @Override
+    public void forEach(SlotConsumer consumer) throws SQLException {
+        String selectAvailabilities = "SELECT Time, Username, Capacity, Booked FROM Availabilities";
+        try (PooledConnection pc = ConnectionManager.getInstance().leaseForPrimaryRead()) {
+            PreparedStatement statement = pc.prepare(selectAvailabilities);
+            statement.setFetchSize(1_000);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    accept(consumer, resultSet);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void forEachBetween(LocalDate first, LocalDate last, SlotConsumer consumer) throws SQLException {
+        // a range seek on the primary key, which is already in this order
+        String selectAvailabilities = "SELECT Time, Username, Capacity, Booked FROM Availabilities " +
+                "WHERE Time BETWEEN ? AND ? ORDER BY Time, Username";
+        try (PooledConnection pc = ConnectionManager.getInstance().leaseForRead()) {
+            PreparedStatement statement = pc.prepare(selectAvailabilities);
+            statement.setDate(1, Date.valueOf(first));
+            statement.setDate(2, Date.valueOf(last));
+            statement.setFetchSize(EXPORT_FETCH_SIZE);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    accept(consumer, resultSet);
+                }
+            }
+        }
+    }
+
+    private static void accept(SlotConsumer consumer, ResultSet resultSet) throws SQLException {
+        consumer.accept(resultSet.getDate("Time").toLocalDate(), resultSet.getString("Username"),
+                resultSet.getInt("Capacity"), resultSet.getInt("Booked"));
+    }
+
+    // sets the parameters of ADD_AVAILABILITY
+    static void setAvailability(PreparedStatement statement, String caregiver, LocalDate date) throws SQLException {
+        Date d = Date.valueOf(date);
+        statement.setDate(1, d);
+        statement.setString(2, caregiver);
+        statement.setDate(3, d);
+        statement.setString(4, caregiver);
+    }
+}
@@ -0,0 +1,116 @@
+package scheduler.storage.sqlserver;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.PooledConnection;
+import scheduler.storage.ChangeFeedRepository;
+import scheduler.storage.ChangeSet;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The change feed in SQL Server, ordered by rowversion: the Version column of Vaccines and the AvailabilityChanges
+ * rows a trigger on Availabilities writes whenever the free slots of a caregiver's day change (see migrations V5
+ * and V6).
+ *
+ * Only changes below MIN_ACTIVE_ROWVERSION() are read. Everything below it is committed, so a transaction that got
+ * its version earlier but commits later is never skipped. Vaccines are few enough to be read without an index.
+ *
+ * Every change comes with its rowversion. The writes of this scheduler return the Version columns of the Availabilities
+ * and Vaccines rows they changed (see migration V8), which come from the same database-wide counter. A change row
+ * is written after the row change it records, so its version orders it correctly against them.
+ */
+class SqlServerChangeFeedRepository implements ChangeFeedRepository {
+
+    private static final String CURRENT_VERSION = "SELECT CAST(MIN_ACTIVE_ROWVERSION() AS bigint) AS Version";
+
+    // one round trip: the version read up to, the pruning horizon, then both kinds of changes
+    private static final String CHANGES_SINCE =
+            "SET NOCOUNT ON; " +
+            "DECLARE @since binary(8) = CAST(CAST(? AS bigint) AS binary(8)); " +
+            "DECLARE @upTo binary(8) = MIN_ACTIVE_ROWVERSION(); " +
+            "SELECT CAST(@upTo AS bigint) AS UpTo, CAST(Version AS bigint) AS Horizon FROM ChangeFeedHorizon; " +
+            "SELECT Time, Username, Slots, CAST(Version AS bigint) AS Version FROM AvailabilityChanges " +
+            "WHERE Version >= @since AND Version < @upTo ORDER BY Version; " +
+            "SELECT Name, Doses, CAST(Version AS bigint) AS Version FROM Vaccines " +
+            "WHERE Version >= @since AND Version < @upTo;";
+
+    private static final String PRUNE =
+            "SET NOCOUNT ON; " +
+            "DECLARE @pruned binary(8); " +
+            "SELECT @pruned = MAX(Version) FROM AvailabilityChanges " +
+            "WHERE ChangedAt < DATEADD(second, -?, SYSUTCDATETIME()); " +
+            "IF @pruned IS NOT NULL " +
+            "BEGIN " +
+            "    UPDATE ChangeFeedHorizon SET Version = @pruned WHERE Id = 1 AND Version < @pruned; " +
+            "    DELETE FROM AvailabilityChanges WHERE Version <= @pruned; " +
+            "END;";
+
+    @Override
+    public boolean isShared() {
+        return true;
+    }
+
+    @Override
+    public long currentVersion() throws SQLException {
+        try (PooledConnection pc = ConnectionManager.getInstance().leaseForPrimaryRead()) {
+            PreparedStatement statement = pc.prepare(CURRENT_VERSION);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong("Version");
+            }
+        }
+    }
+
+    @Override
+    public ChangeSet changesSince(long version) throws SQLException {
+        // read from the primary, a replica's versions say nothing about what the primary committed
+        try (PooledConnection pc = ConnectionManager.getInstance().leaseForPrimaryRead()) {
+            PreparedStatement statement = pc.prepare(CHANGES_SINCE);
+            statement.setLong(1, version);
+            long upTo;
+            try (ResultSet resultSet = SqlServerAppointmentRepository.firstResultSet(statement)) {
+                resultSet.next();
+                upTo = resultSet.getLong("UpTo");
+                // changes this scheduler has not read yet were pruned, only a full load catches up now
+                if (resultSet.getLong("Horizon") >= version) {
+                    return new ChangeSet(upTo, false, List.of(), List.of());
+                }
+            }
+            List<ChangeSet.AvailabilityChange> availabilities = new ArrayList<>();
+            try (ResultSet resultSet = SqlServerAppointmentRepository.nextResultSet(statement)) {
+                while (resultSet.next()) {
+                    availabilities.add(new ChangeSet.AvailabilityChange(resultSet.getDate("Time").toLocalDate(),
+                            resultSet.getString("Username"), resultSet.getInt("Slots"), resultSet.getLong("Version")));
+                }
+            }
+            List<ChangeSet.DoseChange> doses = new ArrayList<>();
+            try (ResultSet resultSet = SqlServerAppointmentRepository.nextResultSet(statement)) {
+                while (resultSet.next()) {
+                    doses.add(new ChangeSet.DoseChange(resultSet.getString("Name"), resultSet.getInt("Doses"),
+                            resultSet.getLong("Version")));
+                }
+            }
+            return new ChangeSet(upTo, true, availabilities, doses);
+        }
+    }
+
+    @Override
+    public void prune(Duration age) throws SQLException {
+        try (PooledConnection pc = ConnectionManager.getInstance().lease()) {
+            PreparedStatement statement = pc.prepare(PRUNE);
+            Connection con = pc.getConnection();
+            con.setAutoCommit(false);
+            // the horizon moves in the same transaction, so no scheduler can read past a gap without noticing
+            statement.setInt(1, (int) Math.min(Integer.MAX_VALUE, age.toSeconds()));
+            statement.execute();
+            con.commit();
+        }
+        // the lease rolls back and restores auto-commit if anything above failed
+    }
+}
@@ -0,0 +1,64 @@
+package scheduler.storage.sqlserver;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.PooledConnection;
+import scheduler.db.TransientRetry;
+import scheduler.storage.ChangeSet;
+import scheduler.storage.InventoryRepository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+class SqlServerInventoryRepository implements InventoryRepository {
+
+    // adds the delta to an existing vaccine or creates a new one, unless that would make the count negative
+    private static final String ADJUST_DOSES =
+            "MERGE Vaccines WITH (HOLDLOCK) AS v " +
+            "USING (SELECT CAST(? AS varchar(255)) AS Name, CAST(? AS int) AS Delta) AS s ON v.Name = s.Name " +
+            "WHEN MATCHED AND v.Doses + s.Delta >= 0 THEN UPDATE SET Doses = v.Doses + s.Delta " +
+            "WHEN NOT MATCHED AND s.Delta >= 0 THEN INSERT (Name, Doses) VALUES (s.Name, s.Delta) " +
+            "OUTPUT inserted.Doses, CAST(inserted.Version AS bigint) AS Version;";
+
+    // the same change for JDBC batches, which can't return the new count
+    static final String ADD_DOSES =
+            "MERGE Vaccines WITH (HOLDLOCK) AS v " +
+            "USING (SELECT CAST(? AS varchar(255)) AS Name, CAST(? AS int) AS Delta) AS s ON v.Name = s.Name " +
+            "WHEN MATCHED AND v.Doses + s.Delta >= 0 THEN UPDATE SET Doses = v.Doses + s.Delta " +
+            "WHEN NOT MATCHED AND s.Delta >= 0 THEN INSERT (Name, Doses) VALUES (s.Name, s.Delta);";
+
+    @Override
+    public ChangeSet.DoseChange adjust(String vaccineName, int delta) throws SQLException {
+        return TransientRetry.run(() -> {
+            try (PooledConnection pc = ConnectionManager.getInstance().lease()) {
+                PreparedStatement statement = pc.prepare(ADJUST_DOSES);
+                statement.setString(1, vaccineName);
+                statement.setInt(2, delta);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        return null;
+                    }
+                    return new ChangeSet.DoseChange(vaccineName, resultSet.getInt("Doses"),
+                            resultSet.getLong("Version"));
+                }
+            }
+        });
+    }
+
+    @Override
+    public SortedMap<String, Integer> findAll() throws SQLException {
+        String selectVaccines = "SELECT Name, Doses FROM Vaccines";
+        SortedMap<String, Integer> allDoses = new TreeMap<>();
+        try (PooledConnection pc = ConnectionManager.getInstance().leaseForPrimaryRead()) {
+            PreparedStatement statement = pc.prepare(selectVaccines);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    allDoses.put(resultSet.getString("Name"), resultSet.getInt("Doses"));
+                }
+            }
+        }
+        return allDoses;
+    }
+}
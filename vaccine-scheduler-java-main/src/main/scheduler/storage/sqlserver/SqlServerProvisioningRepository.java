@@ -0,0 +1,132 @@
+package scheduler.storage.sqlserver;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.PooledConnection;
+import scheduler.db.TransientRetry;
+import scheduler.storage.ChangeSet;
+import scheduler.storage.ProvisioningBatch;
+import scheduler.storage.ProvisioningRepository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+// one JDBC batch per kind of change, all in the same transaction
+class SqlServerProvisioningRepository implements ProvisioningRepository {
+
+    // JDBC batches can't return rows, so the slots and doses the changes left are read back before the commit, one
+    // query per caregiver and vaccine
+    private static final String FIND_SLOTS =
+            "SELECT Time, Capacity - Booked AS Slots, CAST(Version AS bigint) AS Version FROM Availabilities " +
+            "WHERE Username = ? AND Time IN (SELECT CAST(value AS date) FROM STRING_SPLIT(?, ','))";
+    private static final String FIND_DOSES =
+            "SELECT Doses, CAST(Version AS bigint) AS Version FROM Vaccines WHERE Name = ?";
+
+    @Override
+    public ProvisioningBatch.Result apply(List<ProvisioningBatch.Change> changes) throws SQLException {
+        return TransientRetry.run(() -> {
+            boolean[] applied = new boolean[changes.size()];
+            try (PooledConnection pc = ConnectionManager.getInstance().lease()) {
+                PreparedStatement patients = pc.prepare(SqlServerAccountRepository.ADD_PATIENT);
+                PreparedStatement caregivers = pc.prepare(SqlServerAccountRepository.ADD_CAREGIVER);
+                PreparedStatement availabilities = pc.prepare(SqlServerAvailabilityRepository.ADD_AVAILABILITY);
+                PreparedStatement doses = pc.prepare(SqlServerInventoryRepository.ADD_DOSES);
+                Connection con = pc.getConnection();
+                con.setAutoCommit(false);
+                // new users go first, so a batch may hold both a caregiver and that caregiver's availability
+                run(changes, patients, ProvisioningBatch.Kind.PATIENT, applied);
+                run(changes, caregivers, ProvisioningBatch.Kind.CAREGIVER, applied);
+                run(changes, availabilities, ProvisioningBatch.Kind.AVAILABILITY, applied);
+                run(changes, doses, ProvisioningBatch.Kind.DOSES, applied);
+                ChangeSet written = read(pc, changes, applied);
+                con.commit();
+                return new ProvisioningBatch.Result(applied, written);
+            }
+        });
+    }
+
+    private static ChangeSet read(PooledConnection pc, List<ProvisioningBatch.Change> changes, boolean[] applied)
+            throws SQLException {
+        Map<String, StringJoiner> datesByCaregiver = new LinkedHashMap<>();
+        Set<String> vaccineNames = new LinkedHashSet<>();
+        for (int i = 0; i < changes.size(); i++) {
+            ProvisioningBatch.Change change = changes.get(i);
+            if (applied[i] && change.getKind() == ProvisioningBatch.Kind.AVAILABILITY) {
+                datesByCaregiver.computeIfAbsent(change.getUsername(), c -> new StringJoiner(","))
+                        .add(change.getDate().toString());
+            } else if (applied[i] && change.getKind() == ProvisioningBatch.Kind.DOSES) {
+                vaccineNames.add(change.getVaccineName());
+            }
+        }
+        List<ChangeSet.AvailabilityChange> availabilities = new ArrayList<>();
+        for (Map.Entry<String, StringJoiner> caregiver : datesByCaregiver.entrySet()) {
+            PreparedStatement statement = pc.prepare(FIND_SLOTS);
+            statement.setString(1, caregiver.getKey());
+            statement.setString(2, caregiver.getValue().toString());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    availabilities.add(new ChangeSet.AvailabilityChange(resultSet.getDate("Time").toLocalDate(),
+                            caregiver.getKey(), resultSet.getInt("Slots"), resultSet.getLong("Version")));
+                }
+            }
+        }
+        List<ChangeSet.DoseChange> doses = new ArrayList<>();
+        for (String vaccineName : vaccineNames) {
+            PreparedStatement statement = pc.prepare(FIND_DOSES);
+            statement.setString(1, vaccineName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    doses.add(new ChangeSet.DoseChange(vaccineName, resultSet.getInt("Doses"),
+                            resultSet.getLong("Version")));
+                }
+            }
+        }
+        return ChangeSet.of(availabilities, doses);
+    }
+
+    private static void run(List<ProvisioningBatch.Change> changes, PreparedStatement statement,
+                            ProvisioningBatch.Kind kind, boolean[] applied) throws SQLException {
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < changes.size(); i++) {
+            ProvisioningBatch.Change change = changes.get(i);
+            if (change.getKind() != kind) {
+                continue;
+            }
+            switch (kind) {
+                case PATIENT:
+                case CAREGIVER:
+                    statement.setString(1, change.getUsername());
+                    statement.setBytes(2, change.getSalt());
+                    statement.setBytes(3, change.getHash());
+                    statement.setString(4, change.getUsername());
+                    break;
+                case AVAILABILITY:
+                    SqlServerAvailabilityRepository.setAvailability(statement, change.getUsername(),
+                            change.getDate());
+                    break;
+                default:
+                    statement.setString(1, change.getVaccineName());
+                    statement.setInt(2, change.getDoses());
+            }
+            statement.addBatch();
+            positions.add(i);
+        }
+        if (positions.isEmpty()) {
+            return;
+        }
+        int[] counts = statement.executeBatch();
+        for (int i = 0; i < counts.length; i++) {
+            // drivers may report SUCCESS_NO_INFO instead of a row count
+            applied[positions.get(i)] = counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO;
+        }
+    }
+}
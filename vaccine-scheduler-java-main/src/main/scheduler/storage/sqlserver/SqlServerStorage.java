@@ -0,0 +1,31 @@
+package scheduler.storage.sqlserver;
+
+import scheduler.db.ConnectionManager;
+import scheduler.storage.Storage;
+
+import java.sql.SQLException;
+
+/**
+ * Storage in a SQL Server database, reached through the {@link ConnectionManager} pool. The schema is migrated to the
+ * latest version at startup, after which the plans of the hot queries are checked for scans.
+ */
+public class SqlServerStorage {
+
+    private SqlServerStorage() {
+    }
+
+    public static Storage create() {
+        return new Storage(new SqlServerAccountRepository(), new SqlServerAvailabilityRepository(),
+                new SqlServerInventoryRepository(), new SqlServerAppointmentRepository(),
+                new SqlServerProvisioningRepository(), new SqlServerWaitlistRepository(),
+                new SqlServerChangeFeedRepository(), SqlServerStorage::start,
+                () -> ConnectionManager.getInstance().shutdown());
+    }
+
+    private static void start() throws SQLException {
+        new SchemaMigrator().migrate();
+        for (String scan : new PlanCheck().run()) {
+            System.out.println("Plan check: " + scan);
+        }
+    }
+}
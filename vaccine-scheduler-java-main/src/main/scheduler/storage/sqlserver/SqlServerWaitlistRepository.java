@@ -0,0 +1,155 @@
+package scheduler.storage.sqlserver;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.PooledConnection;
+import scheduler.db.TransientRetry;
+import scheduler.model.WaitlistEntry;
+import scheduler.storage.ChangeSet;
+import scheduler.storage.Reservation;
+import scheduler.storage.Waitlist;
+import scheduler.storage.WaitlistRepository;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The waitlist in SQL Server. All assignments of a matching round run one T-SQL batch each, inside one transaction
+ * that is committed once at the end.
+ *
+ * An assignment locks its waitlist entry, caregiver day and vaccine row with UPDLOCK and checks all three (a free slot
+ * on the day, a dose of the vaccine) before it changes anything, so a rejected assignment leaves nothing to undo and
+ * the other assignments of the round still go through. Days a concurrent reservation is booking are skipped with
+ * READPAST instead of waited for.
+ */
+class SqlServerWaitlistRepository implements WaitlistRepository {
+
+    private static final String ASSIGN =
+            "SET NOCOUNT ON; " +
+            "SET XACT_ABORT ON; " +
+            "DECLARE @id int = ?, @time date = ?, @caregiver varchar(255) = ?; " +
+            "DECLARE @patient varchar(255), @vaccine varchar(255); " +
+            "DECLARE @booked TABLE (appointment_id int); " +
+            "DECLARE @claimed TABLE (Slots int, Version bigint); " +
+            "DECLARE @taken TABLE (Doses int, Version bigint); " +
+            "SELECT @patient = Patient, @vaccine = Vaccine_Name FROM Waitlist WITH (UPDLOCK, ROWLOCK) " +
+            "WHERE waitlist_id = @id; " +
+            "IF @@ROWCOUNT = 0 " +
+            "BEGIN " +
+            "    SELECT 'NOT_WAITING' AS Status, CAST(NULL AS int) AS appointment_id; " +
+            "    RETURN; " +
+            "END; " +
+            "IF NOT EXISTS (SELECT 1 FROM Availabilities WITH (UPDLOCK, ROWLOCK, READPAST) " +
+            "               WHERE Time = @time AND Username = @caregiver AND Booked < Capacity) " +
+            "BEGIN " +
+            "    SELECT 'NO_CAREGIVER' AS Status, CAST(NULL AS int) AS appointment_id; " +
+            "    RETURN; " +
+            "END; " +
+            "IF NOT EXISTS (SELECT 1 FROM Vaccines WITH (UPDLOCK, ROWLOCK) WHERE Name = @vaccine AND Doses > 0) " +
+            "BEGIN " +
+            "    SELECT 'NOT_ENOUGH_DOSES' AS Status, CAST(NULL AS int) AS appointment_id; " +
+            "    RETURN; " +
+            "END; " +
+            "DELETE FROM Waitlist WHERE waitlist_id = @id; " +
+            "UPDATE Availabilities SET Booked = Booked + 1 " +
+            "OUTPUT inserted.Capacity - inserted.Booked, CAST(inserted.Version AS bigint) INTO @claimed " +
+            "WHERE Time = @time AND Username = @caregiver; " +
+            "UPDATE Vaccines SET Doses = Doses - 1 " +
+            "OUTPUT inserted.Doses, CAST(inserted.Version AS bigint) INTO @taken WHERE Name = @vaccine; " +
+            "INSERT INTO Appointments (Time, Caregiver, Patient, Vaccine_Name) " +
+            "OUTPUT inserted.appointment_id INTO @booked VALUES (@time, @caregiver, @patient, @vaccine); " +
+            // the slots and doses left, with the versions they were written at
+            "SELECT 'BOOKED' AS Status, b.appointment_id, c.Slots, c.Version AS SlotsVersion, t.Doses, " +
+            "       t.Version AS DosesVersion " +
+            "FROM @booked b CROSS JOIN @claimed c CROSS JOIN @taken t;";
+
+    @Override
+    public WaitlistEntry add(String patient, String vaccineName, LocalDate from, LocalDate until)
+            throws SQLException {
+        String addEntry = "INSERT INTO Waitlist (Patient, Vaccine_Name, FromTime, UntilTime) " +
+                "OUTPUT inserted.waitlist_id VALUES (?, ?, ?, ?)";
+        try (PooledConnection pc = ConnectionManager.getInstance().lease()) {
+            PreparedStatement statement = pc.prepare(addEntry);
+            statement.setString(1, patient);
+            statement.setString(2, vaccineName);
+            statement.setDate(3, Date.valueOf(from));
+            statement.setDate(4, Date.valueOf(until));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new SQLException("Waitlist entry was not added");
+                }
+                return new WaitlistEntry(resultSet.getInt("waitlist_id"), patient, vaccineName, from, until);
+            }
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<WaitlistEntry> consumer) throws SQLException {
+        String selectEntries = "SELECT waitlist_id, Patient, Vaccine_Name, FromTime, UntilTime FROM Waitlist " +
+                "ORDER BY waitlist_id";
+        try (PooledConnection pc = ConnectionManager.getInstance().leaseForPrimaryRead()) {
+            PreparedStatement statement = pc.prepare(selectEntries);
+            statement.setFetchSize(1_000);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    consumer.accept(new WaitlistEntry(resultSet.getInt("waitlist_id"),
+                            resultSet.getString("Patient"), resultSet.getString("Vaccine_Name"),
+                            resultSet.getDate("FromTime").toLocalDate(), resultSet.getDate("UntilTime").toLocalDate()));
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(int waitlistId) throws SQLException {
+        String removeEntry = "DELETE FROM Waitlist WHERE waitlist_id = ?";
+        try (PooledConnection pc = ConnectionManager.getInstance().lease()) {
+            PreparedStatement statement = pc.prepare(removeEntry);
+            statement.setInt(1, waitlistId);
+            return statement.executeUpdate() > 0;
+        }
+    }
+
+    @Override
+    public List<Reservation> assign(List<Waitlist.Assignment> assignments) throws SQLException {
+        // a deadlock rolls back every assignment, so the whole transaction runs again
+        return TransientRetry.run(() -> {
+            List<Reservation> reservations = new ArrayList<>(assignments.size());
+            try (PooledConnection pc = ConnectionManager.getInstance().lease()) {
+                PreparedStatement statement = pc.prepare(ASSIGN);
+                Connection con = pc.getConnection();
+                con.setAutoCommit(false);
+                for (Waitlist.Assignment assignment : assignments) {
+                    statement.setInt(1, assignment.getEntry().getWaitlistId());
+                    statement.setDate(2, Date.valueOf(assignment.getDate()));
+                    statement.setString(3, assignment.getCaregiver());
+                    try (ResultSet resultSet = SqlServerAppointmentRepository.firstResultSet(statement)) {
+                        if (!resultSet.next()) {
+                            throw new SQLException("Assignment returned no status");
+                        }
+                        Reservation.Status status = Reservation.Status.valueOf(resultSet.getString("Status"));
+                        reservations.add(status == Reservation.Status.BOOKED ? booked(assignment, resultSet) :
+                                Reservation.rejected(status));
+                    }
+                }
+                con.commit();
+            }
+            // the lease rolls back and restores auto-commit if anything above failed
+            return reservations;
+        });
+    }
+
+    private static Reservation booked(Waitlist.Assignment assignment, ResultSet resultSet) throws SQLException {
+        return Reservation.booked(resultSet.getInt("appointment_id"),
+                new ChangeSet.AvailabilityChange(assignment.getDate(), assignment.getCaregiver(),
+                        resultSet.getInt("Slots"), resultSet.getLong("SlotsVersion")),
+                new ChangeSet.DoseChange(assignment.getEntry().getVaccineName(), resultSet.getInt("Doses"),
+                        resultSet.getLong("DosesVersion")));
+    }
+}
@@ -0,0 +1,119 @@
+package scheduler.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a CSV file row by row in constant memory.
+ *
+ * Each row is built in a reusable char buffer, encoded as UTF-8 into a reusable direct byte buffer and written to a
+ * {@link FileChannel} whenever that buffer is full. Memory use does not grow with the number of rows, and the file
+ * is written in large sequential chunks. Fields are quoted only when they contain a comma, quote or line break.
+ */
+public class CsvWriter implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1 << 18;
+
+    private final FileChannel channel;
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private CharBuffer row = CharBuffer.allocate(1_024);
+    private boolean firstField = true;
+    private long rows = 0;
+
+    // creates the file, or replaces it if it exists; a link is never followed, so it can't redirect the write
+    public CsvWriter(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    public CsvWriter field(String value) {
+        separate();
+        if (value == null) {
+            return this;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            put(value);
+            return this;
+        }
+        put("\"");
+        put(value.replace("\"", "\"\""));
+        put("\"");
+        return this;
+    }
+
+    public CsvWriter field(int value) {
+        separate();
+        put(Integer.toString(value));
+        return this;
+    }
+
+    public CsvWriter field(Object value) {
+        return field(value == null ? null : value.toString());
+    }
+
+    // ends the current row and encodes it, writing to the file once the buffer is full
+    public void endRow() throws IOException {
+        put("\n");
+        row.flip();
+        while (encoder.encode(row, bytes, false) == CoderResult.OVERFLOW) {
+            drain();
+        }
+        row.clear();
+        firstField = true;
+        rows++;
+    }
+
+    // the rows written so far, including a header
+    public long getRows() {
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void separate() {
+        if (!firstField) {
+            put(",");
+        }
+        firstField = false;
+    }
+
+    private void put(String text) {
+        if (row.remaining() < text.length()) {
+            // a row longer than any before it, the buffer grows once and is reused from then on
+            CharBuffer larger = CharBuffer.allocate(Math.max(row.capacity() * 2, row.position() + text.length()));
+            row.flip();
+            larger.put(row);
+            row = larger;
+        }
+        row.put(text);
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
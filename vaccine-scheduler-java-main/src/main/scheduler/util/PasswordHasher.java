@@ -0,0 +1,56 @@
+package scheduler.util;
+
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs password hashing for signups and logins on a dedicated pool with one thread per core.
+ *
+ * Hashing is pure CPU work, so running more of it at once than there are cores only makes every login slower. The
+ * calling session waits for the result without holding a database connection, so a burst of logins queues up here
+ * instead of starving the connection pool, and the pool threads reuse their key factories and random generators.
+ */
+public class PasswordHasher {
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ExecutorService executor =
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "password-hasher-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+
+    // hashes the password with the given salt, see Util.generateHash
+    public static byte[] hash(String password, byte[] salt) {
+        return await(hashAsync(password, salt));
+    }
+
+    // starts hashing the password so the caller can keep working, e.g. reading the next commands of a batch
+    public static Future<byte[]> hashAsync(String password, byte[] salt) {
+        return executor.submit(() -> Util.generateHash(password, salt));
+    }
+
+    // checks the password against the stored salt and hash
+    public static boolean verify(String password, byte[] salt, byte[] expectedHash) {
+        byte[] calculatedHash = hash(password, salt);
+        // compares in constant time so the comparison doesn't leak how much of the hash matched
+        return MessageDigest.isEqual(expectedHash, calculatedHash);
+    }
+
+    // waits for a hash started with hashAsync
+    public static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
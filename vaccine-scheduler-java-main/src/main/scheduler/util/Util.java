@@ -7,6 +7,8 @@ import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 public class Util {
 
@@ -14,11 +16,20 @@ public class Util {
     private static final int HASH_STRENGTH = 10;
     private static final int KEY_LENGTH = 16;
 
+    // both are expensive to create, so every thread keeps its own instead of creating one per call
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+    private static final ThreadLocal<SecretKeyFactory> KEY_FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    });
+
     public static byte[] generateSalt() {
         // Generate a random cryptographic salt
-        SecureRandom random = new SecureRandom();
         byte[] salt = new byte[16];
-        random.nextBytes(salt);
+        RANDOM.get().nextBytes(salt);
         return salt;
     }
 
@@ -27,12 +38,10 @@ public class Util {
         KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
 
         // Generate the hash
-        SecretKeyFactory factory = null;
         byte[] hash = null;
         try {
-            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            hash = factory.generateSecret(spec).getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+            hash = KEY_FACTORY.get().generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException ex) {
             throw new IllegalStateException();
         }
         return hash;
@@ -48,4 +57,32 @@ public class Util {
 
         return Arrays.copyOf(bytes, i + 1);
     }
+
+    // an integer setting from the environment, the default if it is not set or not a number
+    public static int readSetting(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    // a comma-separated list setting from the environment, empty if it is not set
+    public static Set<String> readListSetting(String name) {
+        Set<String> values = new HashSet<>();
+        String value = System.getenv(name);
+        if (value != null) {
+            for (String item : value.split(",")) {
+                if (!item.isBlank()) {
+                    values.add(item.trim());
+                }
+            }
+        }
+        return values;
+    }
 }